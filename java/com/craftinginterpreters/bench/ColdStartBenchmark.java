@@ -0,0 +1,65 @@
+package com.craftinginterpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The time each stage takes the first time it runs in a fresh JVM, before
+// anything is JIT compiled, which is what running a short script from the
+// command line pays. Each fork measures one run, so the result is spread
+// over many forks.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class ColdStartBenchmark {
+  @Param({"closure.lox", "doughnut.lox", "fibonacci.lox", "generated:100"})
+  public String script;
+
+  private String source;
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    source = Scripts.load(script);
+    statements = new Parser(new Scanner(new StringReader(source))).parse();
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+  }
+
+  @Benchmark
+  public List<Stmt> parse() {
+    return new Parser(new Scanner(new StringReader(source))).parse();
+  }
+
+  @Benchmark
+  public Resolver resolve() {
+    Resolver resolver = new Resolver();
+    resolver.resolve(statements);
+    return resolver;
+  }
+
+  // Everything "jlox script.lox" does once the script is read.
+  @Benchmark
+  public Interpreter run() {
+    List<Stmt> program = new Parser(new Scanner(new StringReader(source))).parse();
+    new Resolver().resolve(program);
+    Interpreter interpreter = new Interpreter();
+    interpreter.interpret(program);
+    return interpreter;
+  }
+}
@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Throughput of each front end stage once the JVM has warmed up. Each stage
+// is measured alone: parse() includes the scanning it drives, but resolve()
+// runs on a tree parsed during setup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FrontEndBenchmark {
+  @Param({
+      "benchzoo.lox",
+      "closure.lox",
+      "doughnut.lox",
+      "fibonacci.lox",
+      "loops.lox",
+      "generated:100",
+      "generated:2000"})
+  public String script;
+
+  private String source;
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    source = Scripts.load(script);
+    statements = parse();
+  }
+
+  @Benchmark
+  public int scan() {
+    Scanner scanner = new Scanner(new StringReader(source));
+    int tokens = 0;
+    while (scanner.type(Scanner.CURRENT) != TokenType.EOF) {
+      scanner.nextToken();
+      tokens++;
+    }
+    return tokens;
+  }
+
+  @Benchmark
+  public List<Stmt> parse() {
+    Parser parser = new Parser(new Scanner(new StringReader(source)));
+    return parser.parse();
+  }
+
+  @Benchmark
+  public Resolver resolve() {
+    Resolver resolver = new Resolver();
+    resolver.resolve(statements);
+    return resolver;
+  }
+}
@@ -0,0 +1,66 @@
+package com.craftinginterpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Throughput of running an already resolved program in a new Interpreter,
+// once the JVM has warmed up.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InterpreterBenchmark {
+  // Only scripts that run without errors and finish quickly.
+  @Param({
+      "closure.lox",
+      "doughnut.lox",
+      "fibonacci.lox",
+      "garbage.lox",
+      "loops.lox",
+      "superdoughnut.lox",
+      "generated:100"})
+  public String script;
+
+  private List<Stmt> statements;
+  private PrintStream out;
+
+  @Setup
+  public void setUp() {
+    Parser parser = new Parser(new Scanner(new StringReader(Scripts.load(script))));
+    statements = parser.parse();
+    new Resolver().resolve(statements);
+
+    // Keep the scripts' output out of the results.
+    out = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+  }
+
+  @TearDown
+  public void tearDown() {
+    System.setOut(out);
+  }
+
+  @Benchmark
+  public Interpreter interpret() {
+    Interpreter interpreter = new Interpreter();
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+// The sources the benchmarks run on. A name like "closure.lox" is one of the
+// scripts in clox/scripts, which are bundled as resources. "generated:N" is
+// a larger program made of N copies of a chunk of classes, functions and
+// loops, each with its own names.
+final class Scripts {
+  private static final String GENERATED = "generated:";
+
+  private Scripts() {}
+
+  static String load(String name) {
+    if (name.startsWith(GENERATED)) {
+      return generate(Integer.parseInt(name.substring(GENERATED.length())));
+    }
+
+    try (InputStream in = Scripts.class.getResourceAsStream("/" + name)) {
+      if (in == null) throw new IllegalArgumentException("No script " + name + ".");
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+  }
+
+  private static String generate(int copies) {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < copies; i++) {
+      source.append("// Copy ").append(i).append(".\n");
+      source.append("class Zoo").append(i).append(" {\n");
+      source.append("  init() { this.aardvark = ").append(i)
+          .append("; this.baboon = \"baboon").append(i).append("\"; }\n");
+      source.append("  ant() { return this.aardvark; }\n");
+      source.append("  banana(suffix) { return this.baboon + suffix; }\n");
+      source.append("}\n");
+      source.append("fun fib").append(i).append("(n) {\n");
+      source.append("  if (n < 2) return n;\n");
+      source.append("  return fib").append(i).append("(n - 2) + fib")
+          .append(i).append("(n - 1);\n");
+      source.append("}\n");
+      source.append("var zoo").append(i).append(" = Zoo").append(i).append("();\n");
+      source.append("var sum").append(i).append(" = 0;\n");
+      source.append("for (var j = 0; j < 10; j = j + 1) {\n");
+      source.append("  sum").append(i).append(" = sum").append(i).append(" + zoo")
+          .append(i).append(".ant() + fib").append(i).append("(5);\n");
+      source.append("  if (zoo").append(i).append(".banana(\"!\") == \"nope\") print j;\n");
+      source.append("}\n");
+    }
+    return source.toString();
+  }
+}
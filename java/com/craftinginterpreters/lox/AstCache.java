@@ -0,0 +1,646 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Saves resolved syntax trees to disk so that running the same script again
+// can skip scanning, parsing and resolving it. Each tree is stored in a file
+// named after a hash of the script's source, so an edited script misses the
+// cache instead of loading a stale tree.
+//
+// The file holds the tree in prefix order: a tag byte for each node followed
+// by its fields, including what the resolver filled in. Strings are stored
+// the first time they appear and referred to by index after that. The caches
+// the interpreter fills in as it runs are not stored.
+class AstCache {
+  private static final int MAGIC = 0x4c6f7841; // "LoxA".
+  // Change this whenever the format or the AST classes change, so that files
+  // written by an older jlox are ignored.
+  static final int VERSION = 1;
+
+  // Expression tags.
+  private static final byte ASSIGN = 1;
+  private static final byte BINARY = 2;
+  private static final byte CALL = 3;
+  private static final byte GET = 4;
+  private static final byte GROUPING = 5;
+  private static final byte LITERAL = 6;
+  private static final byte LOGICAL = 7;
+  private static final byte SET = 8;
+  private static final byte SUPER = 9;
+  private static final byte THIS = 10;
+  private static final byte UNARY = 11;
+  private static final byte VARIABLE = 12;
+
+  // Statement tags.
+  private static final byte BLOCK = 1;
+  private static final byte CLASS = 2;
+  private static final byte EXPRESSION = 3;
+  private static final byte FUNCTION = 4;
+  private static final byte IF = 5;
+  private static final byte PRINT = 6;
+  private static final byte RETURN = 7;
+  private static final byte VAR = 8;
+  private static final byte WHILE = 9;
+
+  // Literal value tags.
+  private static final byte NIL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte NUMBER = 3;
+  private static final byte STRING = 4;
+
+  // Stands in for a missing node, like an if without an else.
+  private static final byte NONE = 0;
+
+  private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+  private final Path file;
+
+  // The optimizer's output is cached apart from the plain tree.
+  AstCache(Path directory, byte[] source, boolean optimized) {
+    this.file = directory.resolve(hash(source, optimized) + ".ast");
+  }
+
+  // Returns the cached tree, or null if there isn't a usable one.
+  List<Stmt> load() {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+      return new Reader(in).readStatements();
+    } catch (NoSuchFileException error) {
+      return null;
+    } catch (IOException | RuntimeException error) {
+      // A truncated or corrupt file is just a miss. Storing the tree again
+      // will replace it.
+      return null;
+    }
+  }
+
+  void store(List<Stmt> statements) {
+    Path directory = file.getParent();
+    try {
+      Files.createDirectories(directory);
+
+      // Write to a temporary file and move it into place, so another process
+      // running the same script never sees half a tree.
+      Path temp = Files.createTempFile(directory, "ast", ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        new Writer(out).writeStatements(statements);
+      } catch (IOException | UncheckedIOException error) {
+        Files.deleteIfExists(temp);
+        throw error;
+      }
+      boolean moved = false;
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+        moved = true;
+      } finally {
+        // The move can fail, say if the directory's file system can't move
+        // atomically. Don't leave a temporary file behind on each run.
+        if (!moved) Files.deleteIfExists(temp);
+      }
+    } catch (IOException | UncheckedIOException error) {
+      // The cache only saves time. Failing to fill it shouldn't stop the
+      // script from running.
+    }
+  }
+
+  private static String hash(byte[] source, boolean optimized) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(source);
+      digest.update((byte) (optimized ? 1 : 0));
+
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException error) {
+      // Every Java platform is required to support SHA-256.
+      throw new AssertionError(error);
+    }
+  }
+
+  // Also used by HeapSnapshot to store function declarations.
+  static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    Writer(DataOutputStream out) {
+      this.out = out;
+    }
+
+    void writeStatements(List<? extends Stmt> statements) {
+      writeInt(statements.size());
+      for (Stmt statement : statements) {
+        write(statement);
+      }
+    }
+
+    void write(Stmt stmt) {
+      if (stmt == null) {
+        writeByte(NONE);
+      } else {
+        stmt.accept(this);
+      }
+    }
+
+    private void write(Expr expr) {
+      if (expr == null) {
+        writeByte(NONE);
+      } else {
+        expr.accept(this);
+      }
+    }
+
+    private void writeExpressions(List<Expr> expressions) {
+      writeInt(expressions.size());
+      for (Expr expression : expressions) {
+        write(expression);
+      }
+    }
+
+    // Tokens in the tree are names, keywords and operators, so they never
+    // have a literal value.
+    private void write(Token token) {
+      writeByte(token.type.ordinal());
+      writeString(token.lexeme);
+      writeInt(token.line);
+    }
+
+    private void writeTokens(List<Token> tokens) {
+      writeInt(tokens.size());
+      for (Token token : tokens) {
+        write(token);
+      }
+    }
+
+    void writeString(String string) {
+      Integer index = strings.get(string);
+      if (index != null) {
+        writeInt(index);
+        return;
+      }
+
+      // The next index means a new string follows.
+      writeInt(strings.size());
+      strings.put(string, strings.size());
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      writeInt(bytes.length);
+      try {
+        out.write(bytes);
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+
+    private void writeByte(int value) {
+      try {
+        out.writeByte(value);
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+
+    private void writeInt(int value) {
+      try {
+        out.writeInt(value);
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+
+    private void writeBoolean(boolean value) {
+      writeByte(value ? 1 : 0);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      writeByte(BLOCK);
+      writeStatements(stmt.statements);
+      writeInt(stmt.slotCount);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      writeByte(CLASS);
+      write(stmt.name);
+      write(stmt.superclass);
+      writeStatements(stmt.methods);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      writeByte(EXPRESSION);
+      write(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      writeByte(FUNCTION);
+      write(stmt.name);
+      writeTokens(stmt.params);
+      writeStatements(stmt.body);
+      writeInt(stmt.slotCount);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      writeByte(IF);
+      write(stmt.condition);
+      write(stmt.thenBranch);
+      write(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      writeByte(PRINT);
+      write(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      writeByte(RETURN);
+      write(stmt.keyword);
+      write(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      writeByte(VAR);
+      write(stmt.name);
+      write(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      writeByte(WHILE);
+      write(stmt.condition);
+      write(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      writeByte(ASSIGN);
+      write(expr.name);
+      write(expr.value);
+      writeInt(expr.depth);
+      writeInt(expr.slot);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      writeByte(BINARY);
+      write(expr.left);
+      write(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      writeByte(CALL);
+      write(expr.callee);
+      write(expr.paren);
+      writeExpressions(expr.arguments);
+      writeBoolean(expr.tail);
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      writeByte(GET);
+      write(expr.object);
+      write(expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      writeByte(GROUPING);
+      write(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      writeByte(LITERAL);
+      Object value = expr.value;
+      if (value == null) {
+        writeByte(NIL);
+      } else if (value instanceof Boolean) {
+        writeByte((boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Double) {
+        writeByte(NUMBER);
+        try {
+          out.writeDouble((double) value);
+        } catch (IOException error) {
+          throw new UncheckedIOException(error);
+        }
+      } else {
+        writeByte(STRING);
+        writeString(value.toString());
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      writeByte(LOGICAL);
+      write(expr.left);
+      write(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      writeByte(SET);
+      write(expr.object);
+      write(expr.name);
+      write(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      writeByte(SUPER);
+      write(expr.keyword);
+      write(expr.method);
+      writeInt(expr.depth);
+      writeInt(expr.slot);
+      writeInt(expr.thisDepth);
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      writeByte(THIS);
+      write(expr.keyword);
+      writeInt(expr.depth);
+      writeInt(expr.slot);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      writeByte(UNARY);
+      write(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      writeByte(VARIABLE);
+      write(expr.name);
+      writeInt(expr.depth);
+      writeInt(expr.slot);
+      return null;
+    }
+  }
+
+  static class Reader {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    Reader(DataInputStream in) {
+      this.in = in;
+    }
+
+    List<Stmt> readStatements() throws IOException {
+      int count = in.readInt();
+      List<Stmt> statements = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        statements.add(readStmt());
+      }
+      return statements;
+    }
+
+    Stmt readStmt() throws IOException {
+      byte tag = in.readByte();
+      switch (tag) {
+        case NONE:
+          return null;
+
+        case BLOCK: {
+          Stmt.Block stmt = new Stmt.Block(readStatements());
+          stmt.slotCount = in.readInt();
+          return stmt;
+        }
+
+        case CLASS: {
+          Token name = readToken();
+          Expr.Variable superclass = (Expr.Variable) readExpr();
+          int count = in.readInt();
+          List<Stmt.Function> methods = new ArrayList<>();
+          for (int i = 0; i < count; i++) {
+            methods.add((Stmt.Function) readStmt());
+          }
+          return new Stmt.Class(name, superclass, methods);
+        }
+
+        case EXPRESSION:
+          return new Stmt.Expression(readExpr());
+
+        case FUNCTION: {
+          Token name = readToken();
+          List<Token> params = readTokens();
+          Stmt.Function stmt = new Stmt.Function(name, params, readStatements());
+          stmt.slotCount = in.readInt();
+          return stmt;
+        }
+
+        case IF: {
+          Expr condition = readExpr();
+          Stmt thenBranch = readStmt();
+          return new Stmt.If(condition, thenBranch, readStmt());
+        }
+
+        case PRINT:
+          return new Stmt.Print(readExpr());
+
+        case RETURN: {
+          Token keyword = readToken();
+          return new Stmt.Return(keyword, readExpr());
+        }
+
+        case VAR: {
+          Token name = readToken();
+          return new Stmt.Var(name, readExpr());
+        }
+
+        case WHILE: {
+          Expr condition = readExpr();
+          return new Stmt.While(condition, readStmt());
+        }
+      }
+
+      throw new IOException("Unknown statement tag " + tag + ".");
+    }
+
+    private Expr readExpr() throws IOException {
+      byte tag = in.readByte();
+      switch (tag) {
+        case NONE:
+          return null;
+
+        case ASSIGN: {
+          Token name = readToken();
+          Expr.Assign expr = new Expr.Assign(name, readExpr());
+          expr.depth = in.readInt();
+          expr.slot = in.readInt();
+          return expr;
+        }
+
+        case BINARY: {
+          Expr left = readExpr();
+          Token operator = readToken();
+          return new Expr.Binary(left, operator, readExpr());
+        }
+
+        case CALL: {
+          Expr callee = readExpr();
+          Token paren = readToken();
+          int count = in.readInt();
+          List<Expr> arguments = new ArrayList<>();
+          for (int i = 0; i < count; i++) {
+            arguments.add(readExpr());
+          }
+          Expr.Call expr = new Expr.Call(callee, paren, arguments);
+          expr.tail = in.readBoolean();
+          return expr;
+        }
+
+        case GET: {
+          Expr object = readExpr();
+          return new Expr.Get(object, readToken());
+        }
+
+        case GROUPING:
+          return new Expr.Grouping(readExpr());
+
+        case LITERAL:
+          return new Expr.Literal(readValue());
+
+        case LOGICAL: {
+          Expr left = readExpr();
+          Token operator = readToken();
+          return new Expr.Logical(left, operator, readExpr());
+        }
+
+        case SET: {
+          Expr object = readExpr();
+          Token name = readToken();
+          return new Expr.Set(object, name, readExpr());
+        }
+
+        case SUPER: {
+          Token keyword = readToken();
+          Expr.Super expr = new Expr.Super(keyword, readToken());
+          expr.depth = in.readInt();
+          expr.slot = in.readInt();
+          expr.thisDepth = in.readInt();
+          return expr;
+        }
+
+        case THIS: {
+          Expr.This expr = new Expr.This(readToken());
+          expr.depth = in.readInt();
+          expr.slot = in.readInt();
+          return expr;
+        }
+
+        case UNARY: {
+          Token operator = readToken();
+          return new Expr.Unary(operator, readExpr());
+        }
+
+        case VARIABLE: {
+          Expr.Variable expr = new Expr.Variable(readToken());
+          expr.depth = in.readInt();
+          expr.slot = in.readInt();
+          return expr;
+        }
+      }
+
+      throw new IOException("Unknown expression tag " + tag + ".");
+    }
+
+    private Object readValue() throws IOException {
+      byte tag = in.readByte();
+      switch (tag) {
+        case NIL:
+          return null;
+        case FALSE:
+          return false;
+        case TRUE:
+          return true;
+        case NUMBER:
+          return in.readDouble();
+        case STRING:
+          return readString();
+      }
+
+      throw new IOException("Unknown literal tag " + tag + ".");
+    }
+
+    private Token readToken() throws IOException {
+      TokenType type = TOKEN_TYPES[in.readByte()];
+      String lexeme = readString();
+      return new Token(type, lexeme, null, in.readInt());
+    }
+
+    private List<Token> readTokens() throws IOException {
+      int count = in.readInt();
+      List<Token> tokens = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        tokens.add(readToken());
+      }
+      return tokens;
+    }
+
+    String readString() throws IOException {
+      int index = in.readInt();
+      if (index < strings.size()) return strings.get(index);
+      if (index != strings.size()) throw new IOException("Bad string index.");
+
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      String string = new String(bytes, StandardCharsets.UTF_8);
+      strings.add(string);
+      return string;
+    }
+  }
+}
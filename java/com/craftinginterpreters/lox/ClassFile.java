@@ -0,0 +1,346 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of a JVM class file writer for the JIT: a constant pool, a
+// bootstrap method table and a single static method whose locals all have a
+// fixed type, so every stack map frame is the same.
+class ClassFile {
+  static final byte ACONST_NULL = 0x01;
+  static final byte ICONST_0 = 0x03;
+  static final byte ICONST_1 = 0x04;
+  static final byte BIPUSH = 0x10;
+  static final byte SIPUSH = 0x11;
+  static final byte LDC_W = 0x13;
+  static final byte ALOAD = 0x19;
+  static final byte ASTORE = 0x3a;
+  static final byte IXOR = (byte) 0x82;
+  static final byte IFEQ = (byte) 0x99;
+  static final byte IFNE = (byte) 0x9a;
+  static final byte GOTO = (byte) 0xa7;
+  static final byte ARETURN = (byte) 0xb0;
+  static final byte INVOKEVIRTUAL = (byte) 0xb6;
+  static final byte INVOKESTATIC = (byte) 0xb8;
+  static final byte INVOKEDYNAMIC = (byte) 0xba;
+  static final byte WIDE = (byte) 0xc4;
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_STATIC = 0x0008;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  private static final int REF_INVOKE_STATIC = 6;
+
+  // A branch target. Jumps to it are patched once its offset is known.
+  static class Label {
+    int offset = -1;
+    final List<Integer> jumps = new ArrayList<>();
+  }
+
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private final Map<String, Integer> entries = new HashMap<>();
+  private int poolCount = 1;
+  private final List<int[]> bootstrapMethods = new ArrayList<>();
+
+  private byte[] code = new byte[256];
+  private int length = 0;
+  private final List<Integer> frames = new ArrayList<>();
+  private boolean unreachable = false;
+
+  private final int thisClass;
+  private final int superClass;
+
+  ClassFile(String className) {
+    thisClass = classRef(className);
+    superClass = classRef("java/lang/Object");
+  }
+
+  int length() {
+    return length;
+  }
+
+  // Constant pool.
+
+  private int entry(String key, int tag, int... data) {
+    Integer index = entries.get(key);
+    if (index != null) return index;
+
+    pool.write(tag);
+    for (int i = 0; i < data.length; i += 2) {
+      // Data is a list of (size in bytes, value) pairs, big-endian.
+      for (int shift = (data[i] - 1) * 8; shift >= 0; shift -= 8) {
+        pool.write(data[i + 1] >> shift);
+      }
+    }
+
+    index = poolCount++;
+    entries.put(key, index);
+    return index;
+  }
+
+  private int utf8(String value) {
+    Integer index = entries.get("U" + value);
+    if (index != null) return index;
+
+    try {
+      pool.write(1);
+      new DataOutputStream(pool).writeUTF(value);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+
+    index = poolCount++;
+    entries.put("U" + value, index);
+    return index;
+  }
+
+  int classRef(String internalName) {
+    return entry("C" + internalName, 7, 2, utf8(internalName));
+  }
+
+  int string(String value) {
+    return entry("S" + value, 8, 2, utf8(value));
+  }
+
+  int integer(int value) {
+    return entry("I" + value, 3, 4, value);
+  }
+
+  private int nameAndType(String name, String descriptor) {
+    return entry("N" + name + ":" + descriptor, 12, 2, utf8(name), 2, utf8(descriptor));
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return entry("M" + owner + "." + name + descriptor, 10,
+        2, classRef(owner), 2, nameAndType(name, descriptor));
+  }
+
+  private int staticMethodHandle(String owner, String name, String descriptor) {
+    return entry("H" + owner + "." + name + descriptor, 15,
+        1, REF_INVOKE_STATIC, 2, methodRef(owner, name, descriptor));
+  }
+
+  // Registers a bootstrap method taking a single int static argument.
+  int bootstrap(String owner, String name, String descriptor, int argument) {
+    int[] method = {staticMethodHandle(owner, name, descriptor), integer(argument)};
+    for (int i = 0; i < bootstrapMethods.size(); i++) {
+      int[] existing = bootstrapMethods.get(i);
+      if (existing[0] == method[0] && existing[1] == method[1]) return i;
+    }
+
+    bootstrapMethods.add(method);
+    return bootstrapMethods.size() - 1;
+  }
+
+  int dynamicConstant(int bootstrap, String name, String descriptor) {
+    return entry("D" + bootstrap + name + descriptor, 17,
+        2, bootstrap, 2, nameAndType(name, descriptor));
+  }
+
+  int invokeDynamic(int bootstrap, String name, String descriptor) {
+    return entry("Y" + bootstrap + name + descriptor, 18,
+        2, bootstrap, 2, nameAndType(name, descriptor));
+  }
+
+  // Code.
+
+  private void emit(int b) {
+    if (unreachable) {
+      // Code after a goto or return can only be reached by a jump, so the
+      // verifier needs a frame for it.
+      frames.add(length);
+      unreachable = false;
+    }
+
+    if (length == code.length) {
+      byte[] grown = new byte[length * 2];
+      System.arraycopy(code, 0, grown, 0, length);
+      code = grown;
+    }
+    code[length++] = (byte) b;
+  }
+
+  private void emitShort(int value) {
+    emit(value >> 8);
+    emit(value);
+  }
+
+  void op(byte opcode) {
+    emit(opcode);
+    if (opcode == ARETURN) unreachable = true;
+  }
+
+  void op(byte opcode, int operand) {
+    op(opcode);
+    emitShort(operand);
+  }
+
+  void pushInt(int value) {
+    if (value >= -1 && value <= 5) {
+      emit(ICONST_0 + value);
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      emit(BIPUSH);
+      emit(value);
+    } else {
+      emit(SIPUSH);
+      emitShort(value);
+    }
+  }
+
+  void local(byte opcode, int index) {
+    if (index > 255) {
+      emit(WIDE);
+      emit(opcode);
+      emitShort(index);
+    } else {
+      emit(opcode);
+      emit(index);
+    }
+  }
+
+  void invokeDynamic(int callSite) {
+    emit(INVOKEDYNAMIC);
+    emitShort(callSite);
+    emitShort(0);
+  }
+
+  void jump(byte opcode, Label label) {
+    emit(opcode);
+    int start = length - 1;
+    emitShort(0);
+    label.jumps.add(start);
+    if (label.offset != -1) patch(label, start);
+    if (opcode == GOTO) unreachable = true;
+  }
+
+  void mark(Label label) {
+    label.offset = length;
+    frames.add(length);
+    unreachable = false;
+    for (int jump : label.jumps) {
+      patch(label, jump);
+    }
+  }
+
+  private void patch(Label label, int jump) {
+    int offset = label.offset - jump;
+    code[jump + 1] = (byte) (offset >> 8);
+    code[jump + 2] = (byte) offset;
+  }
+
+  // How long the code is that toBytes() puts before the body to set the
+  // locals from parameterCount on to null.
+  static int preludeLength(int parameterCount, int maxLocals) {
+    int length = 0;
+    for (int i = parameterCount; i < maxLocals; i++) {
+      length += i > 255 ? 5 : 3;
+    }
+    return length;
+  }
+
+  // Writes the class with one method. Every frame declares the leading
+  // parameters with their real types and every other local as an Object,
+  // with an empty operand stack. So that holds on every path, the method
+  // starts by setting each local after the first parameterCount to null.
+  byte[] toBytes(String methodName, String descriptor, String[] leadingTypes,
+      int parameterCount, int maxLocals, int maxStack) {
+    byte[] body = code;
+    int bodyLength = length;
+    code = new byte[256];
+    length = 0;
+    unreachable = false;
+    for (int i = parameterCount; i < maxLocals; i++) {
+      emit(ACONST_NULL);
+      local(ASTORE, i);
+    }
+    int prelude = length;
+    for (int i = 0; i < bodyLength; i++) {
+      emit(body[i]);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      DataOutputStream out = new DataOutputStream(bytes);
+
+      int nameIndex = utf8(methodName);
+      int descriptorIndex = utf8(descriptor);
+      int codeName = utf8("Code");
+      int stackMapName = utf8("StackMapTable");
+      int bootstrapName = utf8("BootstrapMethods");
+      int[] leading = new int[leadingTypes.length];
+      for (int i = 0; i < leading.length; i++) {
+        leading[i] = classRef(leadingTypes[i]);
+      }
+      int object = classRef("java/lang/Object");
+
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(55);
+      out.writeShort(poolCount);
+      pool.writeTo(out);
+
+      out.writeShort(ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // Interfaces.
+      out.writeShort(0); // Fields.
+
+      // The method.
+      out.writeShort(1);
+      out.writeShort(ACC_PUBLIC | ACC_STATIC);
+      out.writeShort(nameIndex);
+      out.writeShort(descriptorIndex);
+      out.writeShort(1);
+
+      ByteArrayOutputStream table = new ByteArrayOutputStream();
+      DataOutputStream tableOut = new DataOutputStream(table);
+      int[] offsets = frames.stream().distinct().sorted()
+          .mapToInt(offset -> offset + prelude).toArray();
+      tableOut.writeShort(offsets.length);
+      int previous = -1;
+      for (int offset : offsets) {
+        tableOut.writeByte(255); // full_frame
+        tableOut.writeShort(offset - previous - 1);
+        previous = offset;
+        tableOut.writeShort(maxLocals);
+        for (int i = 0; i < maxLocals; i++) {
+          tableOut.writeByte(7); // Object_variable_info
+          tableOut.writeShort(i < leading.length ? leading[i] : object);
+        }
+        tableOut.writeShort(0);
+      }
+
+      out.writeShort(codeName);
+      out.writeInt(2 + 2 + 4 + length + 2 + 2 + 2 + 4 + table.size());
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(length);
+      out.write(code, 0, length);
+      out.writeShort(0); // Exception table.
+      out.writeShort(1);
+      out.writeShort(stackMapName);
+      out.writeInt(table.size());
+      table.writeTo(out);
+
+      // Class attributes.
+      out.writeShort(1);
+      out.writeShort(bootstrapName);
+      out.writeInt(2 + bootstrapMethods.size() * 6);
+      out.writeShort(bootstrapMethods.size());
+      for (int[] method : bootstrapMethods) {
+        out.writeShort(method[0]);
+        out.writeShort(1);
+        out.writeShort(method[1]);
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,210 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// A script that stays parsed and resolved while it is edited, for hosting
+// Lox in an editor or language server.
+//
+// The document remembers where each top-level declaration starts. An edit
+// scans and parses again from near the declaration it begins in, but only
+// until the parser reaches a declaration boundary that was also a
+// boundary before the edit. The text from there on hasn't changed, so the
+// old declarations are kept. Top-level declarations don't share any scopes,
+// since globals are looked up at runtime, so only the declarations that were
+// parsed again need to be resolved again.
+//
+// The tokens in a declaration count lines from 1 at the line the
+// declaration starts on, so adding or removing lines before a declaration
+// only moves its start line and leaves its tree alone. startLine() gives
+// the line to add them to. Lox.tokenLineBase adds it while the declaration
+// is parsed and resolved, so errors are reported at their line in the
+// document.
+//
+// Lox uses it for --watch, which checks a script for errors as it is edited.
+// The trees aren't run there: a runtime error in a function called from
+// another declaration would be counted from the caller's start line.
+class Document {
+  private static class Declaration {
+    // Null if the declaration has a syntax error.
+    final Stmt stmt;
+    final boolean hadError;
+    // Where its first token is. Its tokens' lines count from line.
+    int start;
+    int line;
+
+    Declaration(Stmt stmt, boolean hadError, int start, int line) {
+      this.stmt = stmt;
+      this.hadError = hadError;
+      this.start = start;
+      this.line = line;
+    }
+  }
+
+  private final StringBuilder source;
+  private final List<Declaration> declarations = new ArrayList<>();
+  // Whether scanning text with no declaration in it reported an error, like
+  // an unterminated string that runs to the end.
+  private boolean hadTrailingError = false;
+
+  Document(String source) {
+    this.source = new StringBuilder(source);
+    parse(0, 1, 0, 0, declarations);
+  }
+
+  String source() {
+    return source.toString();
+  }
+
+  List<Stmt> statements() {
+    List<Stmt> statements = new ArrayList<>();
+    for (Declaration declaration : declarations) {
+      if (declaration.stmt != null) statements.add(declaration.stmt);
+    }
+    return statements;
+  }
+
+  // The line in the document that a statement from statements() starts on.
+  // Its tokens are on line 1 there.
+  int startLine(Stmt statement) {
+    for (Declaration declaration : declarations) {
+      if (declaration.stmt == statement) return declaration.line;
+    }
+    throw new IllegalArgumentException("Not a statement in this document.");
+  }
+
+  boolean hadError() {
+    if (hadTrailingError) return true;
+    for (Declaration declaration : declarations) {
+      if (declaration.hadError) return true;
+    }
+    return false;
+  }
+
+  // Replaces length characters starting at offset with text.
+  void edit(int offset, int length, String text) {
+    if (offset < 0 || length < 0 || offset + length > source.length()) {
+      throw new IndexOutOfBoundsException(
+          "Edit " + offset + "+" + length + " is outside the document.");
+    }
+
+    int delta = text.length() - length;
+    source.replace(offset, offset + length, text);
+
+    // Find the last declaration that begins at or before the edit. The edit
+    // can change its first token, which the parser looked at to see where the
+    // declaration before it ended (an "else", say), so start one before that.
+    int first = -1;
+    while (first + 1 < declarations.size() &&
+        declarations.get(first + 1).start <= offset) {
+      first++;
+    }
+    first = Math.max(first - 1, 0);
+
+    int start = 0;
+    int line = 1;
+    if (first < declarations.size() && declarations.get(first).start <= offset) {
+      start = declarations.get(first).start;
+      line = declarations.get(first).line;
+    }
+
+    // The first declaration that might be kept is the first one after the
+    // edited text.
+    int next = first;
+    while (next < declarations.size() &&
+        declarations.get(next).start < offset + length) {
+      next++;
+    }
+
+    List<Declaration> parsed = new ArrayList<>();
+    int kept = parse(start, line, next, delta, parsed);
+    declarations.subList(first, kept).clear();
+    declarations.addAll(first, parsed);
+  }
+
+  // Parses declarations from start into parsed, until the end of the
+  // source or until one would start where an old declaration from index next
+  // on now starts. Returns the index of that old declaration, after moving it
+  // and the ones after it to where they are now.
+  private int parse(int start, int line, int next, int delta,
+                    List<Declaration> parsed) {
+    // A declaration's errors include those from scanning the token after it,
+    // which the parser reads ahead. Those from scanning the first token are
+    // counted with the first declaration.
+    boolean hadError = Lox.hadError;
+    Lox.hadError = false;
+    Scanner scanner = new Scanner(new SourceReader(source, start), start, line);
+    Parser parser = new Parser(scanner);
+    Resolver resolver = new Resolver();
+
+    while (!parser.isAtEnd()) {
+      int position = scanner.position(Scanner.CURRENT);
+      while (next < declarations.size() &&
+          declarations.get(next).start + delta < position) {
+        next++;
+      }
+      if (!Lox.hadError && next < declarations.size() &&
+          declarations.get(next).start + delta == position) {
+        move(next, delta, scanner.startLine(Scanner.CURRENT) - declarations.get(next).line);
+        Lox.hadError = hadError;
+        return next;
+      }
+
+      int declarationLine = scanner.startLine(Scanner.CURRENT);
+      scanner.countLinesFrom(declarationLine);
+      Lox.tokenLineBase = declarationLine - 1;
+      Stmt stmt;
+      try {
+        stmt = parser.declaration();
+        // Like Lox.run(), don't resolve code with syntax errors.
+        if (!Lox.hadError) resolver.resolve(Collections.singletonList(stmt));
+      } finally {
+        Lox.tokenLineBase = 0;
+      }
+      parsed.add(new Declaration(stmt, Lox.hadError, position, declarationLine));
+      hadError |= Lox.hadError;
+      Lox.hadError = false;
+    }
+
+    // The rest of the old declarations were parsed over. Any error left was
+    // from scanning text that has no declarations.
+    hadTrailingError = Lox.hadError;
+    Lox.hadError = hadError || hadTrailingError;
+    return declarations.size();
+  }
+
+  // Only the declarations' positions change. Their trees stay as they are.
+  private void move(int from, int delta, int lineDelta) {
+    for (Declaration declaration : declarations.subList(from, declarations.size())) {
+      declaration.start += delta;
+      declaration.line += lineDelta;
+    }
+  }
+
+  // Reads the document's text without copying it to a String first.
+  private static class SourceReader extends Reader {
+    private final StringBuilder source;
+    private int position;
+
+    SourceReader(StringBuilder source, int position) {
+      this.source = source;
+      this.position = position;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+      if (position >= source.length()) return -1;
+
+      int count = Math.min(length, source.length() - position);
+      source.getChars(position, position + count, buffer, offset);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
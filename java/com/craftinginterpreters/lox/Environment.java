@@ -5,14 +5,25 @@ import java.util.Map;
 
 class Environment {
   final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
+
+  // Globals are looked up by name. Every other scope stores its variables in
+  // the slots the resolver assigned to them.
+  final Map<String, Object> values;
+  final Object[] slots;
+  int defined = 0;
 
   Environment() {
+    InterpreterStats.environment();
     enclosing = null;
+    values = new HashMap<>();
+    slots = null;
   }
 
-  Environment(Environment enclosing) {
+  Environment(Environment enclosing, int size) {
+    InterpreterStats.environment();
     this.enclosing = enclosing;
+    values = null;
+    slots = new Object[size];
   }
 
   Object get(Token name) {
@@ -20,8 +31,6 @@ class Environment {
       return values.get(name.lexeme);
     }
 
-    if (enclosing != null) return enclosing.get(name);
-
     throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
   }
 
@@ -31,16 +40,24 @@ class Environment {
       return;
     }
 
-    if (enclosing != null) {
-      enclosing.assign(name, value);
+    throw new RuntimeError(name, "Undefined variable '" + name + "'.");
+  }
+
+  void define(String name, Object value) {
+    if (slots == null) {
+      values.put(name, value);
       return;
     }
 
-    throw new RuntimeError(name, "Undefined variable '" + name + "'.");
+    // Locals are defined in the same order the resolver declared them, so
+    // the next free slot is the one it assigned to this name.
+    defineSlot(value);
   }
 
-  void define(String name, Object value) {
-    values.put(name, value);
+  // Defines the next local without naming it. Used for a call's receiver
+  // and arguments.
+  void defineSlot(Object value) {
+    slots[defined++] = value;
   }
 
   Environment ancestor(int distance) {
@@ -48,15 +65,15 @@ class Environment {
     for (int i = 0; i < distance; i++) {
       environment = environment.enclosing;
     }
-    
+
     return environment;
   }
 
-  Object getAt(int distance, String name) {
-    return ancestor(distance).values.get(name);
+  Object getAt(int distance, int slot) {
+    return ancestor(distance).slots[slot];
   }
 
-  void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+  void assignAt(int distance, int slot, Object value) {
+    ancestor(distance).slots[slot] = value;
   }
 }
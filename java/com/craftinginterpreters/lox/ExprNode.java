@@ -0,0 +1,746 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// An expression compiled by the TreeCompiler. Each node already knows its
+// operands and everything the resolver worked out about it, so evaluating one
+// is a single virtual call with no re-dispatch on the operator.
+abstract class ExprNode {
+  abstract Object evaluate(Environment environment);
+
+  // Evaluates an expression whose value is expected to be a number without
+  // boxing it. Arithmetic and comparison nodes override this and call it on
+  // their operands, so intermediate results never become Doubles. Common
+  // operand nodes override it too, since this version calls evaluate()
+  // through a call site every node type shares.
+  double evaluateDouble(Environment environment) {
+    return asDouble(evaluate(environment));
+  }
+
+  // Evaluates an expression for its truthiness, as if and while conditions do.
+  // Comparisons and logic operators override this to skip the Boolean.
+  boolean evaluateBoolean(Environment environment) {
+    return Interpreter.isTruthy(evaluate(environment));
+  }
+
+  static double asDouble(Object value) {
+    if (value instanceof Double) return (double) value;
+    throw new UnexpectedResult(value);
+  }
+
+  static boolean isNumeric(ExprNode node) {
+    if (node instanceof Constant) return ((Constant) node).value instanceof Double;
+    if (node instanceof Add) return ((Add) node).numeric;
+    return node instanceof Subtract || node instanceof Multiply
+        || node instanceof Divide || node instanceof Negate;
+  }
+
+  // Thrown by evaluateDouble() when the value isn't a number. It carries the
+  // value so the caller can carry on generically without evaluating the
+  // expression again.
+  static class UnexpectedResult extends RuntimeException {
+    final Object value;
+
+    UnexpectedResult(Object value) {
+      super(null, null, false, false);
+      this.value = value;
+    }
+  }
+
+  static class Constant extends ExprNode {
+    Constant(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return value;
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      return asDouble(value);
+    }
+
+    final Object value;
+  }
+
+  static class LocalGet extends ExprNode {
+    LocalGet(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return environment.getAt(depth, slot);
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      return asDouble(environment.getAt(depth, slot));
+    }
+
+    final int depth;
+    final int slot;
+  }
+
+  static class GlobalGet extends ExprNode {
+    GlobalGet(Environment globals, Token name) {
+      this.globals = globals;
+      this.name = name;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return globals.get(name);
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      return asDouble(globals.get(name));
+    }
+
+    final Environment globals;
+    final Token name;
+  }
+
+  static class LocalSet extends ExprNode {
+    LocalSet(int depth, int slot, ExprNode value) {
+      this.depth = depth;
+      this.slot = slot;
+      this.value = value;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      Object result = value.evaluate(environment);
+      environment.assignAt(depth, slot, result);
+      return result;
+    }
+
+    final int depth;
+    final int slot;
+    final ExprNode value;
+  }
+
+  static class GlobalSet extends ExprNode {
+    GlobalSet(Environment globals, Token name, ExprNode value) {
+      this.globals = globals;
+      this.name = name;
+      this.value = value;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      Object result = value.evaluate(environment);
+      globals.assign(name, result);
+      return result;
+    }
+
+    final Environment globals;
+    final Token name;
+    final ExprNode value;
+  }
+
+  abstract static class Binary extends ExprNode {
+    Binary(ExprNode left, Token operator, ExprNode right) {
+      this.left = left;
+      this.operator = operator;
+      this.right = right;
+    }
+
+    // Evaluate the operands of an operator that only takes numbers. If the
+    // left one isn't a number, the right one is still evaluated before the
+    // error is reported, like the Interpreter does.
+    double leftDouble(Environment environment) {
+      try {
+        return left.evaluateDouble(environment);
+      } catch (UnexpectedResult e) {
+        right.evaluate(environment);
+        throw new RuntimeError(operator, "Operands must be numbers.");
+      }
+    }
+
+    double rightDouble(Environment environment) {
+      try {
+        return right.evaluateDouble(environment);
+      } catch (UnexpectedResult e) {
+        throw new RuntimeError(operator, "Operands must be numbers.");
+      }
+    }
+
+    final ExprNode left;
+    final Token operator;
+    final ExprNode right;
+  }
+
+  static class Equal extends Binary {
+    Equal(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateBoolean(environment);
+    }
+
+    @Override
+    boolean evaluateBoolean(Environment environment) {
+      return Interpreter.isEqual(left.evaluate(environment), right.evaluate(environment));
+    }
+  }
+
+  static class NotEqual extends Binary {
+    NotEqual(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateBoolean(environment);
+    }
+
+    @Override
+    boolean evaluateBoolean(Environment environment) {
+      return !Interpreter.isEqual(left.evaluate(environment), right.evaluate(environment));
+    }
+  }
+
+  static class Greater extends Binary {
+    Greater(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateBoolean(environment);
+    }
+
+    @Override
+    boolean evaluateBoolean(Environment environment) {
+      double a = leftDouble(environment);
+      return a > rightDouble(environment);
+    }
+  }
+
+  static class GreaterEqual extends Binary {
+    GreaterEqual(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateBoolean(environment);
+    }
+
+    @Override
+    boolean evaluateBoolean(Environment environment) {
+      double a = leftDouble(environment);
+      return a >= rightDouble(environment);
+    }
+  }
+
+  static class Less extends Binary {
+    Less(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateBoolean(environment);
+    }
+
+    @Override
+    boolean evaluateBoolean(Environment environment) {
+      double a = leftDouble(environment);
+      return a < rightDouble(environment);
+    }
+  }
+
+  static class LessEqual extends Binary {
+    LessEqual(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateBoolean(environment);
+    }
+
+    @Override
+    boolean evaluateBoolean(Environment environment) {
+      double a = leftDouble(environment);
+      return a <= rightDouble(environment);
+    }
+  }
+
+  static class Add extends Binary {
+    Add(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+      numeric = isNumeric(left) || isNumeric(right);
+    }
+
+    // Whether one of the operands always evaluates to a number, which means
+    // the result does too, or it's an error.
+    final boolean numeric;
+
+    // "+" also concatenates strings, so when evaluateDouble() is used on an
+    // addition whose operands might be strings it starts out assuming numbers
+    // and goes generic the first time it sees anything else.
+    private boolean generic = false;
+
+    @Override
+    Object evaluate(Environment environment) {
+      if (numeric && !generic) return evaluateDouble(environment);
+
+      return add(left.evaluate(environment), right.evaluate(environment));
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      if (generic) return super.evaluateDouble(environment);
+
+      double a;
+      try {
+        a = left.evaluateDouble(environment);
+      } catch (UnexpectedResult e) {
+        generic = true;
+        throw new UnexpectedResult(add(e.value, right.evaluate(environment)));
+      }
+
+      try {
+        return a + right.evaluateDouble(environment);
+      } catch (UnexpectedResult e) {
+        generic = true;
+        throw new UnexpectedResult(add(a, e.value));
+      }
+    }
+
+    private Object add(Object a, Object b) {
+      if (a instanceof Double && b instanceof Double) {
+        return (double) a + (double) b;
+      }
+
+      if (a instanceof CharSequence && b instanceof CharSequence) {
+        return Rope.concat((CharSequence) a, (CharSequence) b);
+      }
+      throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+  }
+
+  static class Subtract extends Binary {
+    Subtract(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateDouble(environment);
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      double a = leftDouble(environment);
+      return a - rightDouble(environment);
+    }
+  }
+
+  static class Multiply extends Binary {
+    Multiply(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateDouble(environment);
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      double a = leftDouble(environment);
+      return a * rightDouble(environment);
+    }
+  }
+
+  static class Divide extends Binary {
+    Divide(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateDouble(environment);
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      double a = leftDouble(environment);
+      return a / rightDouble(environment);
+    }
+  }
+
+  static class And extends ExprNode {
+    And(ExprNode left, ExprNode right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      Object result = left.evaluate(environment);
+      if (!Interpreter.isTruthy(result)) return result;
+      return right.evaluate(environment);
+    }
+
+    @Override
+    boolean evaluateBoolean(Environment environment) {
+      return left.evaluateBoolean(environment) && right.evaluateBoolean(environment);
+    }
+
+    final ExprNode left;
+    final ExprNode right;
+  }
+
+  static class Or extends ExprNode {
+    Or(ExprNode left, ExprNode right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      Object result = left.evaluate(environment);
+      if (Interpreter.isTruthy(result)) return result;
+      return right.evaluate(environment);
+    }
+
+    @Override
+    boolean evaluateBoolean(Environment environment) {
+      return left.evaluateBoolean(environment) || right.evaluateBoolean(environment);
+    }
+
+    final ExprNode left;
+    final ExprNode right;
+  }
+
+  static class Negate extends ExprNode {
+    Negate(Token operator, ExprNode right) {
+      this.operator = operator;
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateDouble(environment);
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      try {
+        return -right.evaluateDouble(environment);
+      } catch (UnexpectedResult e) {
+        throw new RuntimeError(operator, "Operand must be a number.");
+      }
+    }
+
+    final Token operator;
+    final ExprNode right;
+  }
+
+  static class Not extends ExprNode {
+    Not(ExprNode right) {
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return evaluateBoolean(environment);
+    }
+
+    @Override
+    boolean evaluateBoolean(Environment environment) {
+      return !right.evaluateBoolean(environment);
+    }
+
+    final ExprNode right;
+  }
+
+  static class Call extends ExprNode {
+    Call(Interpreter interpreter, ExprNode callee, Token paren, ExprNode[] arguments,
+        boolean tail) {
+      this.interpreter = interpreter;
+      this.callee = callee;
+      this.paren = paren;
+      this.arguments = arguments;
+      this.tail = tail;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return call(callee.evaluate(environment), environment);
+    }
+
+    Object call(Object function, Environment environment) {
+      // See Interpreter.call().
+      if (tail && function instanceof LoxFunction) {
+        LoxFunction callable = (LoxFunction) function;
+        return invoke(callable, callable.receiver, environment);
+      }
+
+      if (function instanceof LoxCallable &&
+          arguments.length == ((LoxCallable) function).arity()) {
+        LoxCallable callable = (LoxCallable) function;
+        switch (arguments.length) {
+          case 0:
+            return callable.call0(interpreter);
+          case 1:
+            return callable.call1(interpreter, arguments[0].evaluate(environment));
+          case 2: {
+            Object a = arguments[0].evaluate(environment);
+            return callable.call2(interpreter, a, arguments[1].evaluate(environment));
+          }
+          case 3: {
+            Object a = arguments[0].evaluate(environment);
+            Object b = arguments[1].evaluate(environment);
+            return callable.call3(interpreter, a, b, arguments[2].evaluate(environment));
+          }
+        }
+      }
+
+      List<Object> values = evaluateArguments(environment);
+
+      if (!(function instanceof LoxCallable)) {
+        throw new RuntimeError(paren, "Can only call functions and classes.");
+      }
+
+      LoxCallable callable = (LoxCallable) function;
+      Interpreter.checkArity(paren, callable, values.size());
+      return callable.call(interpreter, values);
+    }
+
+    List<Object> evaluateArguments(Environment environment) {
+      List<Object> values = new ArrayList<>(arguments.length);
+      for (ExprNode argument : arguments) {
+        values.add(argument.evaluate(environment));
+      }
+      return values;
+    }
+
+    // Evaluates the arguments straight into the method's frame.
+    Object invoke(LoxFunction method, LoxInstance instance, Environment environment) {
+      if (arguments.length != method.arity()) {
+        evaluateArguments(environment);
+        Interpreter.checkArity(paren, method, arguments.length);
+      }
+
+      Environment frame = method.frame(instance);
+      for (ExprNode argument : arguments) {
+        frame.defineSlot(argument.evaluate(environment));
+      }
+
+      if (tail) return new LoxFunction.TailCall(method, frame, instance);
+      return method.run(interpreter, frame, instance);
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      return asDouble(evaluate(environment));
+    }
+
+    final Interpreter interpreter;
+    final ExprNode callee;
+    final Token paren;
+    final ExprNode[] arguments;
+    final boolean tail;
+  }
+
+  // Calls a method on an instance without binding it first. See
+  // Interpreter.invoke().
+  static class Invoke extends Call {
+    Invoke(Interpreter interpreter, Get property, Token paren, ExprNode[] arguments,
+        boolean tail) {
+      super(interpreter, property, paren, arguments, tail);
+      this.property = property;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      Object object = property.object.evaluate(environment);
+
+      if (object instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance) object;
+
+        if (instance.shape == shape) {
+          InterpreterStats.propertyLookup();
+          return invoke(method, instance, environment);
+        }
+
+        // Fields shadow methods.
+        if (instance.shape.indexOf(property.name.lexeme) == -1) {
+          // Not findMethod(), since a miss goes on to property.get(), which
+          // counts it.
+          LoxFunction method = instance.klass.methods.get(property.name.lexeme);
+          if (method != null) {
+            shape = instance.shape;
+            this.method = method;
+            InterpreterStats.propertyLookup();
+            return invoke(method, instance, environment);
+          }
+        }
+      }
+
+      return call(property.get(object), environment);
+    }
+
+    final Get property;
+
+    // The last shape the method was found for. A shape belongs to one class
+    // and has no field with the method's name.
+    private Shape shape;
+    private LoxFunction method;
+  }
+
+  static class SuperInvoke extends Call {
+    SuperInvoke(Interpreter interpreter, Super method, Token paren, ExprNode[] arguments,
+        boolean tail) {
+      super(interpreter, method, paren, arguments, tail);
+      this.method = method;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      LoxFunction function = method.find(environment);
+      LoxInstance object = (LoxInstance) environment.getAt(method.thisDepth, 0);
+      return invoke(function, object, environment);
+    }
+
+    final Super method;
+  }
+
+  static class Get extends ExprNode {
+    Get(ExprNode object, Token name) {
+      this.object = object;
+      this.name = name;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      return get(object.evaluate(environment));
+    }
+
+    Object get(Object instance) {
+      InterpreterStats.propertyLookup();
+      if (instance instanceof LoxInstance) {
+        return get((LoxInstance) instance);
+      }
+
+      throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    private Object get(LoxInstance instance) {
+      if (instance.shape == shape) return instance.fields[index];
+
+      int found = instance.shape.indexOf(name.lexeme);
+      if (found != -1) {
+        shape = instance.shape;
+        index = found;
+        return instance.fields[index];
+      }
+
+      return instance.get(name);
+    }
+
+    @Override
+    double evaluateDouble(Environment environment) {
+      return asDouble(evaluate(environment));
+    }
+
+    final ExprNode object;
+    final Token name;
+
+    // The last shape the field was found in, and where.
+    private Shape shape;
+    private int index;
+  }
+
+  static class Set extends ExprNode {
+    Set(ExprNode object, Token name, ExprNode value) {
+      this.object = object;
+      this.name = name;
+      this.value = value;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      Object instance = object.evaluate(environment);
+
+      if (!(instance instanceof LoxInstance)) {
+        throw new RuntimeError(name, "Only instances have fields.");
+      }
+
+      Object result = value.evaluate(environment);
+      set((LoxInstance) instance, result);
+      return result;
+    }
+
+    private void set(LoxInstance instance, Object result) {
+      if (instance.shape == shape) {
+        if (newShape == null) {
+          instance.fields[index] = result;
+        } else {
+          instance.add(newShape, result);
+        }
+        return;
+      }
+
+      Shape previous = instance.shape;
+      instance.set(name, result);
+      shape = previous;
+      newShape = instance.shape != previous ? instance.shape : null;
+      index = instance.shape.indexOf(name.lexeme);
+    }
+
+    final ExprNode object;
+    final Token name;
+    final ExprNode value;
+
+    // The last shape stored into, the shape that added the field if that
+    // shape didn't have it, and the field's index.
+    private Shape shape;
+    private Shape newShape;
+    private int index;
+  }
+
+  static class Super extends ExprNode {
+    Super(int depth, int slot, int thisDepth, Token method) {
+      this.depth = depth;
+      this.slot = slot;
+      this.thisDepth = thisDepth;
+      this.method = method;
+    }
+
+    @Override
+    Object evaluate(Environment environment) {
+      LoxFunction function = find(environment);
+      return function.bind((LoxInstance) environment.getAt(thisDepth, 0));
+    }
+
+    LoxFunction find(Environment environment) {
+      LoxClass superclass = (LoxClass) environment.getAt(depth, slot);
+
+      LoxFunction function = superclass.findMethod(method.lexeme);
+      if (function == null) {
+        throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+      }
+      return function;
+    }
+
+    final int depth;
+    final int slot;
+    // The method's receiver is in slot 0 of this scope.
+    final int thisDepth;
+    final Token method;
+  }
+}
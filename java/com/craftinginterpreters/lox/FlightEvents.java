@@ -0,0 +1,142 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Java Flight Recorder events for what the Lox program is doing, so a
+// recording can line up GC pauses and JIT compilation with Lox calls.
+//
+// Every event is disabled unless the recording's settings enable it, for
+// example with
+//
+//   -XX:StartFlightRecording:+com.craftinginterpreters.lox.FunctionCall#enabled=true
+//
+// The call paths check whether the event is enabled before creating one.
+// Looking up an event's type starts up the flight recorder, which takes a
+// while, so that waits until a recording has started it. Until then each
+// check is a volatile read. Java stack traces are left out, since they
+// would only show the interpreter.
+class FlightEvents {
+  @Name("com.craftinginterpreters.lox.FunctionCall")
+  @Label("Lox Function Call")
+  @Description("A call to a Lox function or method, from entry to return.")
+  @Category("Lox")
+  @Enabled(false)
+  @StackTrace(false)
+  static class FunctionCall extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    @Description("The line the function is declared on.")
+    int line;
+  }
+
+  @Name("com.craftinginterpreters.lox.Instantiation")
+  @Label("Lox Class Instantiation")
+  @Description("A call to a Lox class, including its initializer.")
+  @Category("Lox")
+  @Enabled(false)
+  @StackTrace(false)
+  static class Instantiation extends Event {
+    @Label("Class")
+    String className;
+  }
+
+  @Name("com.craftinginterpreters.lox.RuntimeError")
+  @Label("Lox Runtime Error")
+  @Category("Lox")
+  @Enabled(false)
+  @StackTrace(false)
+  static class RuntimeErrorEvent extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+  }
+
+  @Name("com.craftinginterpreters.lox.FrontEndPhase")
+  @Label("Lox Front End Phase")
+  @Description("Scanning and parsing a script, resolving it or optimizing it.")
+  @Category("Lox")
+  @Enabled(false)
+  @StackTrace(false)
+  static class FrontEndPhase extends Event {
+    @Label("Phase")
+    String phase;
+  }
+
+  // Not loaded until the flight recorder has been initialized.
+  private static class Types {
+    static final EventType functionCall = EventType.getEventType(FunctionCall.class);
+    static final EventType instantiation = EventType.getEventType(Instantiation.class);
+    static final EventType runtimeError = EventType.getEventType(RuntimeErrorEvent.class);
+    static final EventType frontEndPhase = EventType.getEventType(FrontEndPhase.class);
+  }
+
+  static boolean isFunctionCallEnabled() {
+    return FlightRecorder.isInitialized() && Types.functionCall.isEnabled();
+  }
+
+  static boolean isInstantiationEnabled() {
+    return FlightRecorder.isInitialized() && Types.instantiation.isEnabled();
+  }
+
+  static boolean isRuntimeErrorEnabled() {
+    return FlightRecorder.isInitialized() && Types.runtimeError.isEnabled();
+  }
+
+  static Object execute(LoxFunction function, Interpreter interpreter, Environment frame,
+                        LoxInstance instance) {
+    FunctionCall event = new FunctionCall();
+    event.function = function.declaration.name.lexeme;
+    event.line = function.declaration.name.line;
+    event.begin();
+    try {
+      return function.executeBody(interpreter, frame, instance);
+    } finally {
+      event.commit();
+    }
+  }
+
+  static Object instantiate(LoxClass klass, Interpreter interpreter, List<Object> arguments) {
+    Instantiation event = new Instantiation();
+    event.className = klass.name;
+    event.begin();
+    try {
+      return klass.instantiate(interpreter, arguments);
+    } finally {
+      event.commit();
+    }
+  }
+
+  static void runtimeError(RuntimeError error) {
+    RuntimeErrorEvent event = new RuntimeErrorEvent();
+    event.message = error.getMessage();
+    event.line = error.token.line;
+    event.commit();
+  }
+
+  // Starts timing a front end phase. Returns null if the event is disabled.
+  static FrontEndPhase beginPhase(String phase) {
+    if (!FlightRecorder.isInitialized() || !Types.frontEndPhase.isEnabled()) return null;
+
+    FrontEndPhase event = new FrontEndPhase();
+    event.phase = phase;
+    event.begin();
+    return event;
+  }
+
+  static void endPhase(FrontEndPhase event) {
+    if (event != null) event.commit();
+  }
+}
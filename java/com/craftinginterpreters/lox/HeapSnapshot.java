@@ -0,0 +1,398 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+// Saves everything reachable from an interpreter's globals to a file, and
+// loads it into another interpreter. A program that always starts by
+// running the same prelude can run it once, save a snapshot, and have later
+// processes load the classes, functions and instances it made instead of
+// running it again.
+//
+// The file first lists every object: environments, instances, classes,
+// functions, the declarations of those functions, and natives. An object
+// only refers to objects listed before it, so each one can be created as
+// soon as it is read. That works because the references an object needs
+// when it's created (a function's closure, an instance's class) never form a
+// cycle. Cycles only go through variables and fields, which can change, so
+// those are stored after the list and filled in once every object exists.
+class HeapSnapshot {
+  private static final int MAGIC = 0x4c6f7848; // "LoxH".
+  private static final int VERSION = 1;
+
+  // Object kinds.
+  private static final byte ENVIRONMENT = 1;
+  private static final byte INSTANCE = 2;
+  private static final byte CLASS = 3;
+  private static final byte FUNCTION = 4;
+  private static final byte DECLARATION = 5;
+  private static final byte NATIVE = 6;
+
+  // Value tags.
+  private static final byte NIL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte NUMBER = 3;
+  private static final byte STRING = 4;
+  private static final byte OBJECT = 5;
+
+  // The globals are always object 0.
+  private static final int GLOBALS = 0;
+  private static final int NONE = -1;
+
+  static void save(Interpreter interpreter, Path path) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(path)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(AstCache.VERSION);
+      new Saver(interpreter, out).save();
+    } catch (UncheckedIOException error) {
+      throw error.getCause();
+    }
+  }
+
+  // Defines the snapshot's globals in the interpreter, replacing any it
+  // already has. If compiler isn't null, the functions are compiled with it.
+  static void restore(Interpreter interpreter, TreeCompiler compiler, Path path)
+      throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+          in.readInt() != AstCache.VERSION) {
+        throw new IOException("Not a snapshot from this version of jlox.");
+      }
+      new Restorer(interpreter, compiler, in).restore();
+    } catch (RuntimeException error) {
+      throw new IOException("Corrupt snapshot.", error);
+    }
+  }
+
+  private static class Saver {
+    private final Interpreter interpreter;
+    private final DataOutputStream out;
+    private final AstCache.Writer ast;
+
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private final List<Object> objects = new ArrayList<>();
+    // Environments and instances whose contents haven't been looked at.
+    private final Queue<Object> unvisited = new ArrayDeque<>();
+
+    Saver(Interpreter interpreter, DataOutputStream out) {
+      this.interpreter = interpreter;
+      this.out = out;
+      this.ast = new AstCache.Writer(out);
+    }
+
+    void save() throws IOException {
+      add(interpreter.globals);
+      while (!unvisited.isEmpty()) {
+        Object container = unvisited.remove();
+        if (container instanceof Environment) {
+          Environment environment = (Environment) container;
+          if (environment.values != null) {
+            for (Object value : environment.values.values()) visit(value);
+          } else {
+            for (Object value : environment.slots) visit(value);
+          }
+        } else {
+          for (Object value : ((LoxInstance) container).fields) visit(value);
+        }
+      }
+
+      out.writeInt(objects.size());
+      for (Object object : objects) {
+        writeObject(object);
+      }
+
+      for (Object object : objects) {
+        if (object instanceof Environment) {
+          writeContents((Environment) object);
+        } else if (object instanceof LoxInstance) {
+          writeContents((LoxInstance) object);
+        }
+      }
+    }
+
+    // Gives the object and everything it needs to be created an id, in
+    // an order where each comes after what it needs.
+    private void visit(Object value) throws IOException {
+      if (value == null || ids.containsKey(value)) return;
+      if (value instanceof Boolean || value instanceof Double ||
+          value instanceof CharSequence) {
+        return;
+      }
+
+      if (value instanceof Environment) {
+        visit(((Environment) value).enclosing);
+      } else if (value instanceof LoxInstance) {
+        visit(((LoxInstance) value).klass);
+      } else if (value instanceof LoxClass) {
+        LoxClass klass = (LoxClass) value;
+        visit(klass.superclass);
+        for (LoxFunction method : klass.methods.values()) visit(method);
+      } else if (value instanceof LoxFunction) {
+        LoxFunction function = (LoxFunction) value;
+        visit(function.declaration);
+        visit(function.closure);
+        visit(function.receiver);
+      } else if (!(value instanceof Stmt.Function) && nativeName(value) == null) {
+        throw new IOException("Cannot save " + value + " in a snapshot.");
+      }
+
+      add(value);
+    }
+
+    private void add(Object object) {
+      ids.put(object, objects.size());
+      objects.add(object);
+      if (object instanceof Environment || object instanceof LoxInstance) {
+        unvisited.add(object);
+      }
+    }
+
+    private String nativeName(Object value) {
+      for (Map.Entry<String, LoxCallable> entry : interpreter.natives.entrySet()) {
+        if (entry.getValue() == value) return entry.getKey();
+      }
+      return null;
+    }
+
+    private void writeObject(Object object) throws IOException {
+      if (object == interpreter.globals) {
+        // Object 0 is the globals of whichever interpreter loads it.
+        out.writeByte(ENVIRONMENT);
+      } else if (object instanceof Environment) {
+        Environment environment = (Environment) object;
+        out.writeByte(ENVIRONMENT);
+        writeId(environment.enclosing);
+        out.writeInt(environment.slots.length);
+        out.writeInt(environment.defined);
+      } else if (object instanceof LoxInstance) {
+        out.writeByte(INSTANCE);
+        writeId(((LoxInstance) object).klass);
+      } else if (object instanceof LoxClass) {
+        LoxClass klass = (LoxClass) object;
+        out.writeByte(CLASS);
+        ast.writeString(klass.name);
+        writeId(klass.superclass);
+        out.writeInt(klass.methods.size());
+        for (Map.Entry<String, LoxFunction> method : klass.methods.entrySet()) {
+          ast.writeString(method.getKey());
+          writeId(method.getValue());
+        }
+      } else if (object instanceof LoxFunction) {
+        LoxFunction function = (LoxFunction) object;
+        out.writeByte(FUNCTION);
+        writeId(function.declaration);
+        writeId(function.closure);
+        writeId(function.receiver);
+        out.writeBoolean(function.isInitializer);
+      } else if (object instanceof Stmt.Function) {
+        out.writeByte(DECLARATION);
+        ast.write((Stmt.Function) object);
+      } else {
+        out.writeByte(NATIVE);
+        ast.writeString(nativeName(object));
+      }
+    }
+
+    private void writeContents(Environment environment) throws IOException {
+      if (environment.values != null) {
+        out.writeInt(environment.values.size());
+        for (Map.Entry<String, Object> entry : environment.values.entrySet()) {
+          ast.writeString(entry.getKey());
+          writeValue(entry.getValue());
+        }
+      } else {
+        for (Object value : environment.slots) writeValue(value);
+      }
+    }
+
+    private void writeContents(LoxInstance instance) throws IOException {
+      String[] names = instance.shape.names();
+      out.writeInt(names.length);
+      for (int i = 0; i < names.length; i++) {
+        ast.writeString(names[i]);
+        writeValue(instance.fields[i]);
+      }
+    }
+
+    private void writeValue(Object value) throws IOException {
+      if (value == null) {
+        out.writeByte(NIL);
+      } else if (value instanceof Boolean) {
+        out.writeByte((boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Double) {
+        out.writeByte(NUMBER);
+        out.writeDouble((double) value);
+      } else if (value instanceof CharSequence) {
+        out.writeByte(STRING);
+        ast.writeString(value.toString());
+      } else {
+        out.writeByte(OBJECT);
+        writeId(value);
+      }
+    }
+
+    private void writeId(Object object) throws IOException {
+      out.writeInt(object == null ? NONE : ids.get(object));
+    }
+  }
+
+  private static class Restorer {
+    private final Interpreter interpreter;
+    private final TreeCompiler compiler;
+    private final DataInputStream in;
+    private final AstCache.Reader ast;
+
+    private final List<Object> objects = new ArrayList<>();
+    // Compiled bodies, so functions that share a declaration share one.
+    private final Map<Stmt.Function, StmtNode> bodies = new HashMap<>();
+
+    Restorer(Interpreter interpreter, TreeCompiler compiler, DataInputStream in) {
+      this.interpreter = interpreter;
+      this.compiler = compiler;
+      this.in = in;
+      this.ast = new AstCache.Reader(in);
+    }
+
+    void restore() throws IOException {
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        objects.add(i == GLOBALS ? readGlobals() : readObject());
+      }
+
+      for (Object object : objects) {
+        if (object instanceof Environment) {
+          readContents((Environment) object);
+        } else if (object instanceof LoxInstance) {
+          readContents((LoxInstance) object);
+        }
+      }
+    }
+
+    private Object readGlobals() throws IOException {
+      if (in.readByte() != ENVIRONMENT) throw new IOException("Missing globals.");
+      return interpreter.globals;
+    }
+
+    private Object readObject() throws IOException {
+      byte kind = in.readByte();
+      switch (kind) {
+        case ENVIRONMENT: {
+          Environment enclosing = (Environment) readId();
+          Environment environment = new Environment(enclosing, in.readInt());
+          environment.defined = in.readInt();
+          return environment;
+        }
+
+        case INSTANCE:
+          return new LoxInstance((LoxClass) readId());
+
+        case CLASS: {
+          String name = ast.readString();
+          LoxClass superclass = (LoxClass) readId();
+          Map<String, LoxFunction> methods = new HashMap<>();
+          int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            String methodName = ast.readString();
+            methods.put(methodName, (LoxFunction) readId());
+          }
+          return new LoxClass(name, superclass, methods);
+        }
+
+        case FUNCTION: {
+          Stmt.Function declaration = (Stmt.Function) readId();
+          Environment closure = (Environment) readId();
+          LoxInstance receiver = (LoxInstance) readId();
+          LoxFunction function = new LoxFunction(
+              declaration, compile(declaration), closure, in.readBoolean());
+          if (receiver != null) function = function.bind(receiver);
+          return function;
+        }
+
+        case DECLARATION:
+          return (Stmt.Function) ast.readStmt();
+
+        case NATIVE: {
+          String name = ast.readString();
+          LoxCallable function = interpreter.natives.get(name);
+          if (function == null) throw new IOException("Unknown native " + name + ".");
+          return function;
+        }
+      }
+
+      throw new IOException("Unknown object kind " + kind + ".");
+    }
+
+    private StmtNode compile(Stmt.Function declaration) {
+      if (compiler == null) return null;
+      return bodies.computeIfAbsent(declaration, compiler::compileBody);
+    }
+
+    private void readContents(Environment environment) throws IOException {
+      if (environment.values != null) {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          String name = ast.readString();
+          environment.values.put(name, readValue());
+        }
+      } else {
+        for (int i = 0; i < environment.slots.length; i++) {
+          environment.slots[i] = readValue();
+        }
+      }
+    }
+
+    private void readContents(LoxInstance instance) throws IOException {
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String name = ast.readString();
+        // Adding the fields in their original order gives the instance
+        // the same shape as the other instances that have them.
+        instance.add(instance.shape.with(name), readValue());
+      }
+    }
+
+    private Object readValue() throws IOException {
+      byte tag = in.readByte();
+      switch (tag) {
+        case NIL:
+          return null;
+        case FALSE:
+          return false;
+        case TRUE:
+          return true;
+        case NUMBER:
+          return in.readDouble();
+        case STRING:
+          return ast.readString();
+        case OBJECT:
+          return objects.get(in.readInt());
+      }
+
+      throw new IOException("Unknown value tag " + tag + ".");
+    }
+
+    private Object readId() throws IOException {
+      int id = in.readInt();
+      if (id == NONE) return null;
+      if (id >= objects.size()) throw new IOException("Forward reference.");
+      return objects.get(id);
+    }
+  }
+}
@@ -8,10 +8,18 @@ import java.util.Map;
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   final Environment globals = new Environment();
   private Environment environment = globals;
-  private final Map<Expr, Integer> locals = new HashMap<>();
+
+  // The functions implemented in Java, by the global name they're defined
+  // under.
+  final Map<String, LoxCallable> natives = new HashMap<>();
+
+  // Set by a return statement. Statements that run others stop as soon as
+  // they see it, until the call the return is in takes the value.
+  private boolean returning = false;
+  private Object returnValue = null;
 
   Interpreter() {
-    globals.define(
+    natives.put(
         "clock",
         new LoxCallable() {
           @Override
@@ -21,6 +29,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
           @Override
           public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call0(interpreter);
+          }
+
+          @Override
+          public Object call0(Interpreter interpreter) {
             return (double) System.currentTimeMillis() / 1000.0;
           }
 
@@ -29,6 +42,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return "<native fn>";
           }
         });
+
+    for (Map.Entry<String, LoxCallable> entry : natives.entrySet()) {
+      globals.define(entry.getKey(), entry.getValue());
+    }
   }
 
   void interpret(List<Stmt> statements) {
@@ -41,12 +58,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
   }
 
-  private void execute(Stmt stmt) {
-    stmt.accept(this);
+  void interpret(StmtNode program) {
+    try {
+      program.execute(globals);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    }
   }
 
-  void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+  private void execute(Stmt stmt) {
+    InterpreterStats.statement();
+    stmt.accept(this);
   }
 
   void executeBlock(List<Stmt> statements, Environment environment) {
@@ -56,15 +78,28 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
       for (Stmt statement : statements) {
         execute(statement);
+        if (returning) break;
       }
     } finally {
       this.environment = previous;
     }
   }
 
+  // Called after a function body has run. Returns the value its return
+  // statement returned, or StmtNode.NORMAL if execution reached the end of
+  // the body.
+  Object takeReturnValue() {
+    if (!returning) return StmtNode.NORMAL;
+
+    Object value = returnValue;
+    returning = false;
+    returnValue = null;
+    return value;
+  }
+
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
+    executeBlock(stmt.statements, new Environment(environment, stmt.slotCount));
     return null;
   }
 
@@ -82,10 +117,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     }
 
-    environment.define(stmt.name.lexeme, null);
-
     if (stmt.superclass != null) {
-      environment = new Environment(environment);
+      environment = new Environment(environment, 1);
       environment.define("super", superclass);
     }
 
@@ -101,7 +134,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       environment = environment.enclosing;
     }
 
-    environment.assign(stmt.name, klass);
+    environment.define(stmt.name.lexeme, klass);
     return null;
   }
 
@@ -140,7 +173,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     Object value = null;
     if (stmt.value != null) value = evaluate(stmt.value);
 
-    throw new Return(value);
+    returnValue = value;
+    returning = true;
+    return null;
   }
 
   @Override
@@ -158,6 +193,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Void visitWhileStmt(Stmt.While stmt) {
     while (isTruthy(evaluate(stmt.condition))) {
       execute(stmt.body);
+      if (returning) break;
     }
     return null;
   }
@@ -166,9 +202,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.name, value);
+    if (expr.depth != -1) {
+      environment.assignAt(expr.depth, expr.slot, value);
     } else {
       globals.assign(expr.name, value);
     }
@@ -205,8 +240,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           return (double) left + (double) right;
         }
 
-        if (left instanceof String && right instanceof String) {
-          return (String) left + (String) right;
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+          return Rope.concat((CharSequence) left, (CharSequence) right);
         }
         throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
       case SLASH:
@@ -223,32 +258,158 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitCallExpr(Expr.Call expr) {
-    Object callee = evaluate(expr.callee);
+    if (expr.callee instanceof Expr.Get) {
+      return invoke((Expr.Get) expr.callee, expr);
+    }
 
-    List<Object> arguments = new ArrayList<>();
-    for (Expr argument : expr.arguments) {
-      arguments.add(evaluate(argument));
+    if (expr.callee instanceof Expr.Super) {
+      return invokeSuper((Expr.Super) expr.callee, expr);
+    }
+
+    return call(evaluate(expr.callee), expr);
+  }
+
+  private Object call(Object callee, Expr.Call expr) {
+    if (expr.tail && callee instanceof LoxFunction) {
+      LoxFunction function = (LoxFunction) callee;
+      return invoke(function, function.receiver, expr);
+    }
+
+    List<Expr> arguments = expr.arguments;
+
+    // When the argument count is right, pass the arguments directly instead
+    // of building a list.
+    if (callee instanceof LoxCallable &&
+        arguments.size() == ((LoxCallable) callee).arity()) {
+      LoxCallable function = (LoxCallable) callee;
+      switch (arguments.size()) {
+        case 0:
+          return function.call0(this);
+        case 1:
+          return function.call1(this, evaluate(arguments.get(0)));
+        case 2: {
+          Object a = evaluate(arguments.get(0));
+          return function.call2(this, a, evaluate(arguments.get(1)));
+        }
+        case 3: {
+          Object a = evaluate(arguments.get(0));
+          Object b = evaluate(arguments.get(1));
+          return function.call3(this, a, b, evaluate(arguments.get(2)));
+        }
+      }
     }
 
+    return callWithList(callee, expr);
+  }
+
+  private Object callWithList(Object callee, Expr.Call expr) {
+    List<Object> arguments = evaluateArguments(expr);
+
     if (!(callee instanceof LoxCallable)) {
       throw new RuntimeError(expr.paren, "Can only call functions and classes.");
     }
 
     LoxCallable function = (LoxCallable) callee;
-    if (arguments.size() != function.arity()) {
-      throw new RuntimeError(
-          expr.paren,
-          "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+    checkArity(expr.paren, function, arguments.size());
+    return function.call(this, arguments);
+  }
+
+  // Calls a method on an instance without binding it first, like clox's
+  // OP_INVOKE. Anything else, including a field holding a function, is
+  // looked up and called as usual.
+  private Object invoke(Expr.Get property, Expr.Call expr) {
+    Object object = evaluate(property.object);
+
+    if (object instanceof LoxInstance) {
+      LoxInstance instance = (LoxInstance) object;
+
+      // The call remembers the last shape it found the method for. A shape
+      // belongs to one class, and it says the instance has no field of that
+      // name to shadow the method.
+      if (instance.shape == expr.shape) {
+        InterpreterStats.propertyLookup();
+        return invoke((LoxFunction) expr.method, instance, expr);
+      }
+
+      // Fields shadow methods.
+      if (instance.shape.indexOf(property.name.lexeme) == -1) {
+        // Not findMethod(), since a miss goes on to getProperty(), which
+        // counts it.
+        LoxFunction method = instance.klass.methods.get(property.name.lexeme);
+        if (method != null) {
+          expr.shape = instance.shape;
+          expr.method = method;
+          // Anything else is counted by getProperty().
+          InterpreterStats.propertyLookup();
+          return invoke(method, instance, expr);
+        }
+      }
     }
 
-    return function.call(this, arguments);
+    return call(getProperty(property, object), expr);
+  }
+
+  private Object invokeSuper(Expr.Super method, Expr.Call expr) {
+    LoxFunction function = findSuperMethod(method);
+    LoxInstance object = (LoxInstance)environment.getAt(method.thisDepth, 0);
+    return invoke(function, object, expr);
+  }
+
+  // Evaluates the arguments straight into the method's frame. A call in tail
+  // position returns it as a TailCall for LoxFunction.run() to make once the
+  // calling function has returned.
+  private Object invoke(LoxFunction method, LoxInstance instance, Expr.Call expr) {
+    if (expr.arguments.size() != method.arity()) {
+      // Still evaluate the arguments before reporting the error.
+      evaluateArguments(expr);
+      checkArity(expr.paren, method, expr.arguments.size());
+    }
+
+    Environment frame = method.frame(instance);
+    for (Expr argument : expr.arguments) {
+      frame.defineSlot(evaluate(argument));
+    }
+
+    if (expr.tail) return new LoxFunction.TailCall(method, frame, instance);
+    return method.run(this, frame, instance);
+  }
+
+  private List<Object> evaluateArguments(Expr.Call expr) {
+    List<Object> arguments = new ArrayList<>();
+    for (Expr argument : expr.arguments) {
+      arguments.add(evaluate(argument));
+    }
+    return arguments;
+  }
+
+  static void checkArity(Token paren, LoxCallable function, int count) {
+    if (count != function.arity()) {
+      throw new RuntimeError(
+          paren, "Expected " + function.arity() + " arguments but got " + count + ".");
+    }
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
-    Object object = evaluate(expr.object);
+    return getProperty(expr, evaluate(expr.object));
+  }
+
+  private Object getProperty(Expr.Get expr, Object object) {
+    InterpreterStats.propertyLookup();
     if (object instanceof LoxInstance) {
-      return ((LoxInstance) object).get(expr.name);
+      LoxInstance instance = (LoxInstance) object;
+
+      // The expression remembers the last shape it found the field in.
+      if (instance.shape == expr.shape) return instance.fields[expr.index];
+
+      int index = instance.shape.indexOf(expr.name.lexeme);
+      if (index != -1) {
+        expr.shape = instance.shape;
+        expr.index = index;
+        return instance.fields[index];
+      }
+
+      return instance.get(expr.name);
     }
 
     throw new RuntimeError(expr.name,
@@ -287,17 +448,36 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     Object value = evaluate(expr.value);
-    ((LoxInstance)object).set(expr.name, value);
+    LoxInstance instance = (LoxInstance)object;
+
+    // The expression remembers the last shape it stored into, and the shape
+    // that added the field if it wasn't there yet.
+    if (instance.shape == expr.shape) {
+      if (expr.newShape == null) {
+        instance.fields[expr.index] = value;
+      } else {
+        instance.add(expr.newShape, value);
+      }
+      return value;
+    }
+
+    Shape shape = instance.shape;
+    instance.set(expr.name, value);
+    expr.shape = shape;
+    expr.newShape = instance.shape != shape ? instance.shape : null;
+    expr.index = instance.shape.indexOf(expr.name.lexeme);
     return value;
   }
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
-    LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
+    LoxFunction method = findSuperMethod(expr);
+    return method.bind((LoxInstance)environment.getAt(expr.thisDepth, 0));
+  }
 
-    // "this" is always one level nearer than "super"'s environment.
-    LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
+  private LoxFunction findSuperMethod(Expr.Super expr) {
+    int distance = expr.depth;
+    LoxClass superclass = (LoxClass)environment.getAt(distance, expr.slot);
 
     LoxFunction method = superclass.findMethod(expr.method.lexeme);
 
@@ -306,12 +486,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           "Undefined property '" + expr.method.lexeme + "'.");
     }
 
-    return method.bind(object);
+    return method;
   }
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return lookUpVariable(expr.keyword, expr);
+    return lookUpVariable(expr.keyword, expr.depth, expr.slot);
   }
 
   @Override
@@ -332,43 +512,46 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return lookUpVariable(expr.name, expr);
+    return lookUpVariable(expr.name, expr.depth, expr.slot);
   }
 
-  private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.lexeme);
+  private Object lookUpVariable(Token name, int depth, int slot) {
+    if (depth != -1) {
+      return environment.getAt(depth, slot);
     } else {
       return globals.get(name);
     }
   }
 
-  private void checkNumberOperand(Token operator, Object operand) {
+  static void checkNumberOperand(Token operator, Object operand) {
     if (operand instanceof Double) return;
     throw new RuntimeError(operator, "Operand must be a number.");
   }
 
-  private void checkNumberOperands(Token operator, Object left, Object right) {
+  static void checkNumberOperands(Token operator, Object left, Object right) {
     if (left instanceof Double && right instanceof Double) return;
     throw new RuntimeError(operator, "Operands must be numbers.");
   }
 
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean) object;
     return true;
   }
 
-  private boolean isEqual(Object a, Object b) {
+  static boolean isEqual(Object a, Object b) {
     // nil is only equal to nil.
     if (a == null && b == null) return true;
     if (a == null) return false;
 
+    // Compare ropes by their characters.
+    if (a instanceof Rope) a = a.toString();
+    if (b instanceof Rope) b = b.toString();
+
     return a.equals(b);
   }
 
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null) return "nil";
 
     // Hack. Work around Java adding ".0" to integer-valued doubles.
@@ -0,0 +1,143 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counts what the runtime does, for --jmx, and publishes the totals as the
+// platform MBean com.craftinginterpreters.lox:type=Interpreter.
+//
+// Counting is off unless enabled is set, so the hooks in the Interpreter,
+// the TreeCompiler's nodes, Environment, LoxClass and LoxInstance cost a
+// static field check. Once on, each thread counts into a Counters of its
+// own with plain increments, and reading an attribute sums every thread's.
+// Code the Jit compiled doesn't count the statements it runs.
+class InterpreterStats implements InterpreterStatsMBean {
+  static final String NAME = "com.craftinginterpreters.lox:type=Interpreter";
+
+  static boolean enabled = false;
+
+  private static class Counters {
+    final Thread owner = Thread.currentThread();
+    long statements = 0;
+    long calls = 0;
+    long environments = 0;
+    long instances = 0;
+    long propertyLookups = 0;
+    long methodMisses = 0;
+  }
+
+  private static final List<Counters> threads = new CopyOnWriteArrayList<>();
+  private static final ThreadLocal<Counters> counters = ThreadLocal.withInitial(() -> {
+    Counters counters = new Counters();
+    threads.add(counters);
+    return counters;
+  });
+
+  // The counters of the thread that counted last. Usually only one thread
+  // runs Lox code, so this saves looking up the ThreadLocal on every count.
+  private static Counters last = null;
+
+  private static Counters counters() {
+    Counters local = last;
+    if (local != null && local.owner == Thread.currentThread()) return local;
+
+    local = counters.get();
+    last = local;
+    return local;
+  }
+
+  static void statement() {
+    if (enabled) counters().statements++;
+  }
+
+  static void call() {
+    if (enabled) counters().calls++;
+  }
+
+  static void environment() {
+    if (enabled) counters().environments++;
+  }
+
+  static void instance() {
+    if (enabled) counters().instances++;
+  }
+
+  static void propertyLookup() {
+    if (enabled) counters().propertyLookups++;
+  }
+
+  static void methodMiss() {
+    if (enabled) counters().methodMisses++;
+  }
+
+  // Starts counting and registers the MBean, unless one is already
+  // registered under NAME.
+  static void enable() {
+    enabled = true;
+    try {
+      ObjectName name = new ObjectName(NAME);
+      if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new InterpreterStats(), name);
+      }
+    } catch (JMException error) {
+      System.err.println("Could not register " + NAME + ": " + error.getMessage());
+    }
+  }
+
+  @Override
+  public long getStatementsExecuted() {
+    long sum = 0;
+    for (Counters counters : threads) {
+      sum += counters.statements;
+    }
+    return sum;
+  }
+
+  @Override
+  public long getCalls() {
+    long sum = 0;
+    for (Counters counters : threads) {
+      sum += counters.calls;
+    }
+    return sum;
+  }
+
+  @Override
+  public long getEnvironmentsAllocated() {
+    long sum = 0;
+    for (Counters counters : threads) {
+      sum += counters.environments;
+    }
+    return sum;
+  }
+
+  @Override
+  public long getInstancesCreated() {
+    long sum = 0;
+    for (Counters counters : threads) {
+      sum += counters.instances;
+    }
+    return sum;
+  }
+
+  @Override
+  public long getPropertyLookups() {
+    long sum = 0;
+    for (Counters counters : threads) {
+      sum += counters.propertyLookups;
+    }
+    return sum;
+  }
+
+  @Override
+  public long getMethodLookupMisses() {
+    long sum = 0;
+    for (Counters counters : threads) {
+      sum += counters.methodMisses;
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+// The attributes InterpreterStats publishes over JMX. Standard MBean
+// interfaces have to be public for the MBean server to introspect them.
+public interface InterpreterStatsMBean {
+  long getStatementsExecuted();
+
+  long getCalls();
+
+  long getEnvironmentsAllocated();
+
+  long getInstancesCreated();
+
+  long getPropertyLookups();
+
+  long getMethodLookupMisses();
+}
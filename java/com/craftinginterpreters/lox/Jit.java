@@ -0,0 +1,714 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+
+// Compiles hot functions to JVM bytecode. Once a function has been called
+// THRESHOLD times, the JitCompiler turns its declaration into a hidden class
+// with one static method taking the interpreter, the closure and the
+// arguments. Later calls through LoxFunction run that method, and calls made
+// from compiled code go through invokedynamic call sites that link straight
+// to the callee's compiled method when it has one. Property gets and sets,
+// and the method lookups of method calls, go through sites guarded on the
+// instance's Shape.
+//
+// Anything the JitCompiler does not handle, and any call site whose guard
+// fails, falls back to LoxFunction.call() and the Interpreter.
+class Jit {
+  static final int THRESHOLD = 1000;
+
+  static boolean enabled = false;
+
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  private static final MethodHandle IS_FUNCTION;
+  private static final MethodHandle CLOSURE;
+  private static final MethodHandle RECEIVER;
+  private static final MethodHandle RELINK;
+  private static final MethodHandle CALL;
+  private static final MethodHandle TAIL_CALL;
+  private static final MethodHandle COMPLETE;
+  private static final MethodHandle HAS_SHAPE;
+  private static final MethodHandle FIELD;
+  private static final MethodHandle KNOWN_METHOD;
+  private static final MethodHandle GET_RELINK;
+  private static final MethodHandle STORE_FIELD;
+  private static final MethodHandle ADD_FIELD;
+  private static final MethodHandle SET_RELINK;
+  private static final MethodHandle IS_METHOD;
+  private static final MethodHandle INVOKE_RELINK;
+  private static final MethodHandle INVOKE;
+  private static final MethodHandle TAIL_INVOKE;
+
+  static {
+    try {
+      IS_FUNCTION = lookup.findStatic(Jit.class, "isFunction",
+          MethodType.methodType(boolean.class, Stmt.Function.class, Object.class));
+      CLOSURE = lookup.findStatic(Jit.class, "closure",
+          MethodType.methodType(Environment.class, Object.class));
+      RECEIVER = lookup.findStatic(Jit.class, "receiver",
+          MethodType.methodType(Object.class, Object.class));
+      RELINK = lookup.findVirtual(LoxCallSite.class, "relink",
+          MethodType.methodType(Object.class, Interpreter.class, Object.class, Object[].class));
+      CALL = lookup.findStatic(Jit.class, "call", MethodType.methodType(Object.class,
+          Token.class, Interpreter.class, Object.class, Object[].class));
+      TAIL_CALL = lookup.findStatic(Jit.class, "tailCall", MethodType.methodType(Object.class,
+          Token.class, Interpreter.class, Object.class, Object[].class));
+      COMPLETE = lookup.findStatic(Jit.class, "complete",
+          MethodType.methodType(Object.class, Interpreter.class, Object.class));
+      HAS_SHAPE = lookup.findStatic(Jit.class, "hasShape",
+          MethodType.methodType(boolean.class, Shape.class, Object.class));
+      FIELD = lookup.findStatic(Jit.class, "field",
+          MethodType.methodType(Object.class, int.class, Object.class));
+      KNOWN_METHOD = lookup.findStatic(Jit.class, "knownMethod",
+          MethodType.methodType(Object.class, LoxFunction.class, Object.class));
+      GET_RELINK = lookup.findVirtual(GetSite.class, "relink",
+          MethodType.methodType(Object.class, Object.class));
+      STORE_FIELD = lookup.findStatic(Jit.class, "storeField",
+          MethodType.methodType(void.class, int.class, Object.class, Object.class));
+      ADD_FIELD = lookup.findStatic(Jit.class, "addField",
+          MethodType.methodType(void.class, Shape.class, Object.class, Object.class));
+      SET_RELINK = lookup.findVirtual(SetSite.class, "relink",
+          MethodType.methodType(void.class, Object.class, Object.class));
+      IS_METHOD = lookup.findStatic(Jit.class, "isMethod",
+          MethodType.methodType(boolean.class, LoxFunction.class, Object.class));
+      INVOKE_RELINK = lookup.findVirtual(InvokeSite.class, "relink", MethodType.methodType(
+          Object.class, Interpreter.class, Object.class, Object.class, Object[].class));
+      INVOKE = lookup.findStatic(Jit.class, "invoke", MethodType.methodType(Object.class,
+          Expr.Call.class, Interpreter.class, Object.class, Object.class, Object[].class));
+      TAIL_INVOKE = lookup.findStatic(Jit.class, "tailInvoke", MethodType.methodType(
+          Object.class, Expr.Call.class, Interpreter.class, Object.class, Object.class,
+          Object[].class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  // Called by LoxFunction each time the function is called. Returns true
+  // once the declaration has compiled code.
+  static boolean isHot(Stmt.Function declaration, boolean isMethod) {
+    if (declaration.jitEntry != null) return true;
+    if (++declaration.calls != THRESHOLD) return false;
+
+    compile(declaration, isMethod);
+    return declaration.jitEntry != null;
+  }
+
+  // A method's compiled code takes the receiver before the arguments.
+  private static void compile(Stmt.Function declaration, boolean isMethod) {
+    JitCompiler compiler = new JitCompiler(declaration, isMethod);
+    byte[] bytes = compiler.compile();
+
+    // The function uses something the JitCompiler can't handle, so it stays
+    // interpreted.
+    if (bytes == null) return;
+
+    try {
+      Class<?> code = lookup.defineHiddenClassWithClassData(
+          bytes, compiler.constants(), true).lookupClass();
+      declaration.jitCode = lookup.findStatic(code, "call", compiler.type());
+      declaration.jitEntry = declaration.jitCode.asSpreader(
+          Object[].class, declaration.jitCode.type().parameterCount() - 2);
+    } catch (ClassFormatError | VerifyError e) {
+      // The class is one the JVM won't load, say because the method is too
+      // big. Leave the function interpreted rather than failing the script.
+      return;
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  // Runs the compiled code for a call whose receiver and arguments have
+  // already been defined in the frame LoxFunction made for it. Like the
+  // call0() to call3() entry points of LoxCallable, the common small arities
+  // pass the frame's slots straight to the code instead of spreading an
+  // array.
+  static Object invoke(Stmt.Function declaration, Interpreter interpreter, Environment frame) {
+    MethodHandle code = declaration.jitCode;
+    Environment closure = frame.enclosing;
+    Object[] slots = frame.slots;
+    try {
+      switch (code.type().parameterCount() - 2) {
+        case 0: return (Object) code.invokeExact(interpreter, closure);
+        case 1: return (Object) code.invokeExact(interpreter, closure, slots[0]);
+        case 2: return (Object) code.invokeExact(interpreter, closure, slots[0], slots[1]);
+        case 3:
+          return (Object) code.invokeExact(interpreter, closure, slots[0], slots[1], slots[2]);
+        case 4:
+          return (Object) code.invokeExact(
+              interpreter, closure, slots[0], slots[1], slots[2], slots[3]);
+        default:
+          Object[] values = Arrays.copyOf(slots, code.type().parameterCount() - 2);
+          return (Object) declaration.jitEntry.invokeExact(interpreter, closure, values);
+      }
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  // Whether LoxFunction's call0() to call3() can run the function's compiled
+  // code directly, without making a frame for it.
+  static boolean canCall(LoxFunction function) {
+    return function.declaration.jitCode != null && !function.isInitializer && !isObserved();
+  }
+
+  static Object call0(LoxFunction function, Interpreter interpreter) {
+    MethodHandle code = function.declaration.jitCode;
+    try {
+      Object result = function.receiver == null
+          ? (Object) code.invokeExact(interpreter, function.closure)
+          : (Object) code.invokeExact(interpreter, function.closure, (Object) function.receiver);
+      return complete(interpreter, result);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static Object call1(LoxFunction function, Interpreter interpreter, Object a) {
+    MethodHandle code = function.declaration.jitCode;
+    try {
+      Object result = function.receiver == null
+          ? (Object) code.invokeExact(interpreter, function.closure, a)
+          : (Object) code.invokeExact(
+              interpreter, function.closure, (Object) function.receiver, a);
+      return complete(interpreter, result);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static Object call2(LoxFunction function, Interpreter interpreter, Object a, Object b) {
+    MethodHandle code = function.declaration.jitCode;
+    try {
+      Object result = function.receiver == null
+          ? (Object) code.invokeExact(interpreter, function.closure, a, b)
+          : (Object) code.invokeExact(
+              interpreter, function.closure, (Object) function.receiver, a, b);
+      return complete(interpreter, result);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static Object call3(
+      LoxFunction function, Interpreter interpreter, Object a, Object b, Object c) {
+    MethodHandle code = function.declaration.jitCode;
+    try {
+      Object result = function.receiver == null
+          ? (Object) code.invokeExact(interpreter, function.closure, a, b, c)
+          : (Object) code.invokeExact(
+              interpreter, function.closure, (Object) function.receiver, a, b, c);
+      return complete(interpreter, result);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  // The bootstrap method for the invokedynamic instruction compiled code
+  // uses for every call. The static argument is the index of the call's
+  // closing parenthesis token in the class data, used for error reporting.
+  //
+  // Calls in tail position are named "tailCall". They never link to the
+  // callee's code, since they return a TailCall for LoxFunction.run() to make
+  // instead of calling a Lox function.
+  static CallSite bootstrapCall(
+      MethodHandles.Lookup caller, String name, MethodType type, int paren)
+      throws IllegalAccessException {
+    Token token = MethodHandles.classDataAt(caller, "_", Token.class, paren);
+    if (name.equals("tailCall")) {
+      return new ConstantCallSite(
+          TAIL_CALL.bindTo(token).asCollector(Object[].class, type.parameterCount() - 2));
+    }
+    return new LoxCallSite(type, token);
+  }
+
+  // A call site that starts out calling through LoxCallable. The first time
+  // it sees a compiled function with the right arity, it links directly to
+  // that function's code behind a guard checking the callee's declaration,
+  // which holds for every closure and bound method made from it. Any other
+  // callee goes through LoxCallable.
+  static class LoxCallSite extends MutableCallSite {
+    private final Token paren;
+    private final MethodHandle generic;
+
+    LoxCallSite(MethodType type, Token paren) {
+      super(type);
+      this.paren = paren;
+
+      int argumentCount = type.parameterCount() - 2;
+      generic = CALL.bindTo(paren).asCollector(Object[].class, argumentCount);
+      setTarget(RELINK.bindTo(this).asCollector(Object[].class, argumentCount));
+    }
+
+    private Object relink(Interpreter interpreter, Object callee, Object[] arguments) {
+      if (callee instanceof LoxFunction) {
+        Stmt.Function declaration = ((LoxFunction) callee).declaration;
+        if (declaration.jitCode != null && declaration.params.size() == arguments.length &&
+            !isObserved()) {
+          link(declaration);
+        }
+      }
+
+      return call(paren, interpreter, callee, arguments);
+    }
+
+    private void link(Stmt.Function declaration) {
+      MethodType type = type();
+      MethodHandle test = MethodHandles.dropArguments(
+          IS_FUNCTION.bindTo(declaration), 0, Interpreter.class);
+      test = MethodHandles.dropArguments(
+          test, 2, type.parameterList().subList(2, type.parameterCount()));
+
+      MethodHandle target;
+      if (declaration.jitCode.type().parameterCount() == type.parameterCount()) {
+        target = MethodHandles.filterArguments(declaration.jitCode, 1, CLOSURE);
+      } else {
+        // A bound method. Pass the callee in twice, once to get the closure
+        // from and once to get the receiver from.
+        target = MethodHandles.filterArguments(declaration.jitCode, 1, CLOSURE, RECEIVER);
+        int[] order = new int[type.parameterCount() + 1];
+        for (int i = 0; i < order.length; i++) {
+          order[i] = i < 2 ? i : i - 1;
+        }
+        target = MethodHandles.permuteArguments(target, type, order);
+      }
+
+      setTarget(MethodHandles.guardWithTest(test, completing(target), generic));
+    }
+  }
+
+  // Passes the result of a target taking the interpreter first through
+  // complete(), since the callee's code may return a TailCall, which has to
+  // be made before its result gets back to the call site.
+  private static MethodHandle completing(MethodHandle target) {
+    MethodType type = target.type();
+    target = MethodHandles.collectArguments(COMPLETE, 1, target);
+    int[] order = new int[type.parameterCount() + 1];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i == 0 ? 0 : i - 1;
+    }
+    return MethodHandles.permuteArguments(target, type, order);
+  }
+
+  // The bootstrap method for the invokedynamic instructions compiled code
+  // uses to get and set properties. The static argument is the index of the
+  // property's name token in the class data.
+  //
+  // "getMethod" is the lookup for a method call, which leaves a method it
+  // finds unbound for the "invoke" site that calls it.
+  static CallSite bootstrapProperty(
+      MethodHandles.Lookup caller, String name, MethodType type, int property)
+      throws IllegalAccessException {
+    Token token = MethodHandles.classDataAt(caller, "_", Token.class, property);
+    if (name.equals("setProperty")) return new SetSite(type, token);
+    return new GetSite(type, token, name.equals("getMethod"));
+  }
+
+  // How many shapes a property site links to. Instances with other shapes
+  // take the uncached path.
+  private static final int SHAPE_LIMIT = 4;
+
+  // Like the caches in ExprNode.Get and ExprNode.Invoke, but each shape the
+  // site sees adds a guard on that shape in front of its target, which reads
+  // the field at its index or, for a method call, returns the method.
+  static class GetSite extends MutableCallSite {
+    private final Token name;
+    private final boolean isCall;
+    private int shapes = 0;
+
+    GetSite(MethodType type, Token name, boolean isCall) {
+      super(type);
+      this.name = name;
+      this.isCall = isCall;
+      setTarget(GET_RELINK.bindTo(this));
+    }
+
+    private Object relink(Object object) {
+      if (object instanceof LoxInstance && shapes < SHAPE_LIMIT) {
+        LoxInstance instance = (LoxInstance) object;
+        int index = instance.shape.indexOf(name.lexeme);
+        if (index != -1) {
+          link(instance.shape, MethodHandles.insertArguments(FIELD, 0, index));
+        } else if (isCall) {
+          // A shape belongs to one class, so it pins down the method too.
+          LoxFunction method = instance.klass.methods.get(name.lexeme);
+          if (method != null) link(instance.shape, KNOWN_METHOD.bindTo(method));
+        }
+      }
+
+      return isCall ? getMethod(object, name) : getProperty(object, name);
+    }
+
+    private void link(Shape shape, MethodHandle target) {
+      shapes++;
+      setTarget(MethodHandles.guardWithTest(HAS_SHAPE.bindTo(shape), target, getTarget()));
+    }
+  }
+
+  // Caches where a store goes the way ExprNode.Set does: the field's index if
+  // the instance has it, or the shape adding it if not.
+  static class SetSite extends MutableCallSite {
+    private final Token name;
+    private int shapes = 0;
+
+    SetSite(MethodType type, Token name) {
+      super(type);
+      this.name = name;
+      setTarget(SET_RELINK.bindTo(this));
+    }
+
+    // checkFields() has already made sure the object is an instance.
+    private void relink(Object object, Object value) {
+      LoxInstance instance = (LoxInstance) object;
+      Shape shape = instance.shape;
+      instance.set(name, value);
+      if (shapes == SHAPE_LIMIT) return;
+
+      MethodHandle target = instance.shape == shape
+          ? MethodHandles.insertArguments(STORE_FIELD, 0, shape.indexOf(name.lexeme))
+          : ADD_FIELD.bindTo(instance.shape);
+      MethodHandle test = MethodHandles.dropArguments(HAS_SHAPE.bindTo(shape), 1, Object.class);
+      shapes++;
+      setTarget(MethodHandles.guardWithTest(test, target, getTarget()));
+    }
+  }
+
+  // The bootstrap method for method calls, which compiled code makes as a
+  // "getMethod" lookup followed by an "invoke" passing the result and the
+  // instance before the arguments. The static argument is the index of the
+  // Expr.Call in the class data.
+  //
+  // Like "tailCall", "tailInvoke" never links to the method's code.
+  static CallSite bootstrapInvoke(
+      MethodHandles.Lookup caller, String name, MethodType type, int call)
+      throws IllegalAccessException {
+    Expr.Call expr = MethodHandles.classDataAt(caller, "_", Expr.Call.class, call);
+    if (name.equals("tailInvoke")) {
+      return new ConstantCallSite(
+          TAIL_INVOKE.bindTo(expr).asCollector(Object[].class, type.parameterCount() - 3));
+    }
+    return new InvokeSite(type, expr);
+  }
+
+  // A call site for a method call. The first time the method it is given
+  // has compiled code taking the arguments, it links straight to that code
+  // with the method's closure bound and the instance as the receiver, so no
+  // bound method is made. The guard only has to check the method, since
+  // "getMethod" is the only thing that produces it unbound.
+  static class InvokeSite extends MutableCallSite {
+    private final Expr.Call call;
+    private final MethodHandle generic;
+
+    InvokeSite(MethodType type, Expr.Call call) {
+      super(type);
+      this.call = call;
+
+      int argumentCount = type.parameterCount() - 3;
+      generic = INVOKE.bindTo(call).asCollector(Object[].class, argumentCount);
+      setTarget(INVOKE_RELINK.bindTo(this).asCollector(Object[].class, argumentCount));
+    }
+
+    private Object relink(
+        Interpreter interpreter, Object callee, Object receiver, Object[] arguments) {
+      LoxFunction method = asMethod(call, callee, receiver);
+      if (method != null && method.declaration.jitCode != null &&
+          method.arity() == arguments.length && !isObserved()) {
+        link(method);
+      }
+
+      return invoke(call, interpreter, callee, receiver, arguments);
+    }
+
+    private void link(LoxFunction method) {
+      MethodType type = type();
+      MethodHandle test = MethodHandles.dropArguments(
+          IS_METHOD.bindTo(method), 0, Interpreter.class);
+      test = MethodHandles.dropArguments(
+          test, 2, type.parameterList().subList(2, type.parameterCount()));
+
+      MethodHandle target = MethodHandles.insertArguments(
+          method.declaration.jitCode, 1, method.closure);
+      target = MethodHandles.dropArguments(target, 1, Object.class);
+      setTarget(MethodHandles.guardWithTest(test, completing(target), generic));
+    }
+  }
+
+  // Returns the callee as a method to call on the receiver if "getMethod"
+  // found it in the receiver's class, or null if it is a field's value. A
+  // class's methods are only ever handed out bound, so the two can't be
+  // confused.
+  private static LoxFunction asMethod(Expr.Call call, Object callee, Object receiver) {
+    if (!(callee instanceof LoxFunction) || !(receiver instanceof LoxInstance)) return null;
+
+    String name = ((Expr.Get) call.callee).name.lexeme;
+    if (((LoxInstance) receiver).klass.methods.get(name) != callee) return null;
+    return (LoxFunction) callee;
+  }
+
+  private static boolean isMethod(LoxFunction method, Object callee) {
+    return callee == method && !isObserved();
+  }
+
+  private static boolean hasShape(Shape shape, Object object) {
+    return object instanceof LoxInstance && ((LoxInstance) object).shape == shape;
+  }
+
+  private static Object field(int index, Object object) {
+    InterpreterStats.propertyLookup();
+    return ((LoxInstance) object).fields[index];
+  }
+
+  private static Object knownMethod(LoxFunction method, Object object) {
+    InterpreterStats.propertyLookup();
+    return method;
+  }
+
+  private static void storeField(int index, Object object, Object value) {
+    ((LoxInstance) object).fields[index] = value;
+  }
+
+  private static void addField(Shape shape, Object object, Object value) {
+    ((LoxInstance) object).add(shape, value);
+  }
+
+  // The guard on a linked call site. It also fails while calls are being
+  // observed, so that they go through LoxFunction again.
+  private static boolean isFunction(Stmt.Function declaration, Object callee) {
+    return callee instanceof LoxFunction && ((LoxFunction) callee).declaration == declaration &&
+        !isObserved();
+  }
+
+  // Whether the Profiler or a FunctionCall flight recorder event needs to see
+  // every call, which only happens in LoxFunction. A recording can start
+  // after a call site has been linked.
+  private static boolean isObserved() {
+    return Profiler.active != null || FlightEvents.isFunctionCallEnabled();
+  }
+
+  private static Environment closure(Object callee) {
+    return ((LoxFunction) callee).closure;
+  }
+
+  private static Object receiver(Object callee) {
+    return ((LoxFunction) callee).receiver;
+  }
+
+  // Operations used by compiled code. Each one behaves like the matching
+  // case in the Interpreter, including its runtime errors.
+
+  static Object call(Token paren, Interpreter interpreter, Object callee, Object[] arguments) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    LoxCallable function = (LoxCallable) callee;
+    Interpreter.checkArity(paren, function, arguments.length);
+    switch (arguments.length) {
+      case 0: return function.call0(interpreter);
+      case 1: return function.call1(interpreter, arguments[0]);
+      case 2: return function.call2(interpreter, arguments[0], arguments[1]);
+      case 3: return function.call3(interpreter, arguments[0], arguments[1], arguments[2]);
+      default: return function.call(interpreter, Arrays.asList(arguments));
+    }
+  }
+
+  static Object tailCall(Token paren, Interpreter interpreter, Object callee, Object[] arguments) {
+    if (callee instanceof LoxFunction && ((LoxFunction) callee).arity() == arguments.length) {
+      LoxFunction function = (LoxFunction) callee;
+      return new LoxFunction.TailCall(
+          function, frame(function, function.receiver, arguments), function.receiver);
+    }
+
+    return call(paren, interpreter, callee, arguments);
+  }
+
+  static Object invoke(Expr.Call call, Interpreter interpreter, Object callee, Object receiver,
+      Object[] arguments) {
+    LoxFunction method = asMethod(call, callee, receiver);
+    if (method == null) return call(call.paren, interpreter, callee, arguments);
+
+    Interpreter.checkArity(call.paren, method, arguments.length);
+    return method.run(interpreter, frame(method, (LoxInstance) receiver, arguments),
+        (LoxInstance) receiver);
+  }
+
+  static Object tailInvoke(Expr.Call call, Interpreter interpreter, Object callee,
+      Object receiver, Object[] arguments) {
+    LoxFunction method = asMethod(call, callee, receiver);
+    if (method == null) return tailCall(call.paren, interpreter, callee, arguments);
+
+    Interpreter.checkArity(call.paren, method, arguments.length);
+    LoxInstance instance = (LoxInstance) receiver;
+    return new LoxFunction.TailCall(method, frame(method, instance, arguments), instance);
+  }
+
+  private static Environment frame(LoxFunction function, LoxInstance instance,
+      Object[] arguments) {
+    Environment frame = function.frame(instance);
+    for (Object argument : arguments) {
+      frame.defineSlot(argument);
+    }
+    return frame;
+  }
+
+  // Every call linked to compiled code returns through here, so count it.
+  private static Object complete(Interpreter interpreter, Object result) {
+    InterpreterStats.call();
+    if (!(result instanceof LoxFunction.TailCall)) return result;
+
+    LoxFunction.TailCall call = (LoxFunction.TailCall) result;
+    return call.function.run(interpreter, call.frame, call.instance);
+  }
+
+  static Object getGlobal(Interpreter interpreter, Token name) {
+    return interpreter.globals.get(name);
+  }
+
+  static void setGlobal(Interpreter interpreter, Token name, Object value) {
+    interpreter.globals.assign(name, value);
+  }
+
+  static Object equal(Object left, Object right) {
+    return Interpreter.isEqual(left, right);
+  }
+
+  static Object notEqual(Object left, Object right) {
+    return !Interpreter.isEqual(left, right);
+  }
+
+  static Object greater(Object left, Object right, Token operator) {
+    return testGreater(left, right, operator);
+  }
+
+  static Object greaterEqual(Object left, Object right, Token operator) {
+    return testGreaterEqual(left, right, operator);
+  }
+
+  static Object less(Object left, Object right, Token operator) {
+    return testLess(left, right, operator);
+  }
+
+  static Object lessEqual(Object left, Object right, Token operator) {
+    return testLessEqual(left, right, operator);
+  }
+
+  // Comparisons used directly as an if or while condition skip boxing the
+  // result.
+  static boolean testGreater(Object left, Object right, Token operator) {
+    Interpreter.checkNumberOperands(operator, left, right);
+    return (double) left > (double) right;
+  }
+
+  static boolean testGreaterEqual(Object left, Object right, Token operator) {
+    Interpreter.checkNumberOperands(operator, left, right);
+    return (double) left >= (double) right;
+  }
+
+  static boolean testLess(Object left, Object right, Token operator) {
+    Interpreter.checkNumberOperands(operator, left, right);
+    return (double) left < (double) right;
+  }
+
+  static boolean testLessEqual(Object left, Object right, Token operator) {
+    Interpreter.checkNumberOperands(operator, left, right);
+    return (double) left <= (double) right;
+  }
+
+  static Object add(Object left, Object right, Token operator) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double) left + (double) right;
+    }
+
+    if (left instanceof CharSequence && right instanceof CharSequence) {
+      return Rope.concat((CharSequence) left, (CharSequence) right);
+    }
+    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+  }
+
+  static Object subtract(Object left, Object right, Token operator) {
+    Interpreter.checkNumberOperands(operator, left, right);
+    return (double) left - (double) right;
+  }
+
+  static Object multiply(Object left, Object right, Token operator) {
+    Interpreter.checkNumberOperands(operator, left, right);
+    return (double) left * (double) right;
+  }
+
+  static Object divide(Object left, Object right, Token operator) {
+    Interpreter.checkNumberOperands(operator, left, right);
+    return (double) left / (double) right;
+  }
+
+  static Object negate(Object right, Token operator) {
+    Interpreter.checkNumberOperand(operator, right);
+    return -(double) right;
+  }
+
+  static Object not(Object right) {
+    return !Interpreter.isTruthy(right);
+  }
+
+  static Object getProperty(Object object, Token name) {
+    InterpreterStats.propertyLookup();
+    if (object instanceof LoxInstance) {
+      return ((LoxInstance) object).get(name);
+    }
+
+    throw new RuntimeError(name, "Only instances have properties.");
+  }
+
+  // The uncached lookup for a method call. Leaves a method unbound, for
+  // invoke() to call with the instance as its receiver.
+  static Object getMethod(Object object, Token name) {
+    InterpreterStats.propertyLookup();
+    if (object instanceof LoxInstance) {
+      LoxInstance instance = (LoxInstance) object;
+
+      // Fields shadow methods. Not findMethod(), since a miss goes on to
+      // get(), which counts it.
+      if (instance.shape.indexOf(name.lexeme) == -1) {
+        LoxFunction method = instance.klass.methods.get(name.lexeme);
+        if (method != null) return method;
+      }
+      return instance.get(name);
+    }
+
+    throw new RuntimeError(name, "Only instances have properties.");
+  }
+
+  static void checkFields(Object object, Token name) {
+    if (!(object instanceof LoxInstance)) {
+      throw new RuntimeError(name, "Only instances have fields.");
+    }
+  }
+
+  static Object getSuper(Object superclass, Object object, Token method) {
+    LoxFunction function = ((LoxClass) superclass).findMethod(method.lexeme);
+
+    if (function == null) {
+      throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+    }
+
+    return function.bind((LoxInstance) object);
+  }
+
+  static void print(Object value) {
+    System.out.println(Interpreter.stringify(value));
+  }
+}
@@ -0,0 +1,549 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.ClassFile.*;
+
+// Compiles one function declaration to a class with a single static method:
+//
+//     static Object call(Interpreter interpreter, Environment closure,
+//                        Object arg0, Object arg1, ...)
+//
+// A method's receiver comes before the arguments. The function's own
+// variables, including "this", live in JVM locals instead of Environments, so
+// functions declaring other functions or classes, which could capture them,
+// aren't compiled. Variables from enclosing functions and "super" are read
+// through the closure.
+//
+// Every expression leaves its value in a fresh local, so the operand stack is
+// empty wherever code branches and every local is an Object. That keeps the
+// stack map frames trivial. HotSpot allocates registers anyway.
+class JitCompiler implements Expr.Visitor<Integer>, Stmt.Visitor<Void> {
+  private static final String PACKAGE = "com/craftinginterpreters/lox/";
+  private static final String INTERPRETER = PACKAGE + "Interpreter";
+  private static final String ENVIRONMENT = PACKAGE + "Environment";
+  private static final String JIT = PACKAGE + "Jit";
+  private static final String OBJECT = "Ljava/lang/Object;";
+  private static final String TOKEN = "L" + PACKAGE + "Token;";
+
+  private static final String CLASS_DATA_AT = "(Ljava/lang/invoke/MethodHandles$Lookup;"
+      + "Ljava/lang/String;Ljava/lang/Class;I)Ljava/lang/Object;";
+  private static final String BOOTSTRAP = "(Ljava/lang/invoke/MethodHandles$Lookup;"
+      + "Ljava/lang/String;Ljava/lang/invoke/MethodType;I)Ljava/lang/invoke/CallSite;";
+
+  // Thrown when the function uses something the compiler doesn't support.
+  private static class Unsupported extends RuntimeException {
+    Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static class Scope {
+    // The JVM local holding the scope's first slot.
+    final int first;
+    int declared = 0;
+
+    Scope(int first) {
+      this.first = first;
+    }
+  }
+
+  private final Stmt.Function function;
+  // The arguments, preceded by "this" for a method.
+  private final int parameterCount;
+  private final ClassFile file;
+  private final List<Scope> scopes = new ArrayList<>();
+  private int nextLocal = 2;
+  private int maxStack = 4;
+
+  // Values the compiled code loads from the hidden class's class data.
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+
+  JitCompiler(Stmt.Function function, boolean isMethod) {
+    this.function = function;
+    this.parameterCount = function.params.size() + (isMethod ? 1 : 0);
+    this.file = new ClassFile(PACKAGE + "Jit$" + function.name.lexeme);
+  }
+
+  // Returns the class file, or null if the function can't be compiled.
+  byte[] compile() {
+    // The JVM allows 255 parameter slots.
+    if (parameterCount > 253) return null;
+
+    try {
+      Scope scope = beginScope(function.slotCount);
+      scope.declared = parameterCount;
+      for (Stmt statement : function.body) {
+        compile(statement);
+      }
+      endScope();
+
+      file.op(ACONST_NULL);
+      file.op(ARETURN);
+
+      // Keep every branch offset within a signed short, and the whole
+      // method, with the prelude toBytes() adds, within the JVM's limit of
+      // 65535 bytes of code.
+      if (file.length() > Short.MAX_VALUE - 1024 || nextLocal > 0xffff) return null;
+      int prelude = ClassFile.preludeLength(2 + parameterCount, nextLocal);
+      if (file.length() + prelude > 0xffff) return null;
+    } catch (Unsupported e) {
+      return null;
+    }
+
+    return file.toBytes("call", type().toMethodDescriptorString(),
+        new String[] {INTERPRETER, ENVIRONMENT}, 2 + parameterCount, nextLocal, maxStack);
+  }
+
+  List<Object> constants() {
+    return constants;
+  }
+
+  MethodType type() {
+    MethodType type = MethodType.methodType(Object.class, Interpreter.class, Environment.class);
+    for (int i = 0; i < parameterCount; i++) {
+      type = type.appendParameterTypes(Object.class);
+    }
+    return type;
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private int compile(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private Scope beginScope(int slotCount) {
+    Scope scope = new Scope(nextLocal);
+    nextLocal += slotCount;
+    scopes.add(scope);
+    return scope;
+  }
+
+  private void endScope() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  private int temp() {
+    return nextLocal++;
+  }
+
+  // Returns the value's index in the class data.
+  private int constantIndex(Object value) {
+    Integer index = constantIndexes.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantIndexes.put(value, index);
+    }
+    return index;
+  }
+
+  private int constant(Object value, String descriptor) {
+    int bootstrap = file.bootstrap(
+        "java/lang/invoke/MethodHandles", "classDataAt", CLASS_DATA_AT, constantIndex(value));
+    return file.dynamicConstant(bootstrap, "_", descriptor);
+  }
+
+  private void loadToken(Token token) {
+    file.op(LDC_W, constant(token, TOKEN));
+  }
+
+  private void invoke(String owner, String name, String descriptor) {
+    file.op(INVOKESTATIC, file.methodRef(owner, name, descriptor));
+  }
+
+  // Calls a Jit helper taking the values in the given locals followed by
+  // the token, and stores its result in a new local.
+  private int operation(String name, Token token, int... operands) {
+    StringBuilder descriptor = new StringBuilder("(");
+    for (int operand : operands) {
+      file.local(ALOAD, operand);
+      descriptor.append(OBJECT);
+    }
+    if (token != null) {
+      loadToken(token);
+      descriptor.append(TOKEN);
+    }
+    descriptor.append(")").append(OBJECT);
+    invoke(JIT, name, descriptor.toString());
+
+    int result = temp();
+    file.local(ASTORE, result);
+    return result;
+  }
+
+  // Gets a property of the instance in the given local through an
+  // invokedynamic site that caches where instances of each shape keep it,
+  // and stores the result in a new local.
+  private int property(String name, Token token, int object) {
+    file.local(ALOAD, object);
+    int bootstrap = file.bootstrap(JIT, "bootstrapProperty", BOOTSTRAP, constantIndex(token));
+    file.invokeDynamic(file.invokeDynamic(bootstrap, name, "(" + OBJECT + ")" + OBJECT));
+
+    int result = temp();
+    file.local(ASTORE, result);
+    return result;
+  }
+
+  // Returns the JVM local holding a variable the resolver found depth scopes
+  // out, or -1 if it belongs to an enclosing function.
+  private int local(int depth, int slot) {
+    if (depth >= scopes.size()) return -1;
+    return scopes.get(scopes.size() - 1 - depth).first + slot;
+  }
+
+  private int variable(Token name, int depth, int slot) {
+    int result = temp();
+    if (depth == -1) {
+      file.local(ALOAD, 0);
+      loadToken(name);
+      invoke(JIT, "getGlobal", "(L" + INTERPRETER + ";" + TOKEN + ")" + OBJECT);
+    } else if (local(depth, slot) != -1) {
+      file.local(ALOAD, local(depth, slot));
+    } else {
+      loadFromClosure(depth - scopes.size(), slot);
+    }
+    file.local(ASTORE, result);
+    return result;
+  }
+
+  private void loadFromClosure(int depth, int slot) {
+    file.local(ALOAD, 1);
+    file.pushInt(depth);
+    file.pushInt(slot);
+    file.op(INVOKEVIRTUAL, file.methodRef(ENVIRONMENT, "getAt", "(II)" + OBJECT));
+  }
+
+  // Leaves whether the condition is truthy on the stack as an int, without
+  // boxing the result of a comparison.
+  private void test(Expr condition) {
+    while (condition instanceof Expr.Grouping) {
+      condition = ((Expr.Grouping) condition).expression;
+    }
+
+    if (condition instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) condition;
+      String name = null;
+      switch (binary.operator.type) {
+        case GREATER: name = "testGreater"; break;
+        case GREATER_EQUAL: name = "testGreaterEqual"; break;
+        case LESS: name = "testLess"; break;
+        case LESS_EQUAL: name = "testLessEqual"; break;
+        case EQUAL_EQUAL:
+        case BANG_EQUAL: name = "isEqual"; break;
+      }
+
+      if (name != null) {
+        int left = compile(binary.left);
+        int right = compile(binary.right);
+        file.local(ALOAD, left);
+        file.local(ALOAD, right);
+        if (name.equals("isEqual")) {
+          invoke(INTERPRETER, name, "(" + OBJECT + OBJECT + ")Z");
+          if (binary.operator.type == TokenType.BANG_EQUAL) negateTest();
+        } else {
+          loadToken(binary.operator);
+          invoke(JIT, name, "(" + OBJECT + OBJECT + TOKEN + ")Z");
+        }
+        return;
+      }
+    }
+
+    if (condition instanceof Expr.Unary
+        && ((Expr.Unary) condition).operator.type == TokenType.BANG) {
+      test(((Expr.Unary) condition).right);
+      negateTest();
+      return;
+    }
+
+    file.local(ALOAD, compile(condition));
+    invoke(INTERPRETER, "isTruthy", "(" + OBJECT + ")Z");
+  }
+
+  private void negateTest() {
+    file.op(ICONST_1);
+    file.op(IXOR);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope(stmt.slotCount);
+    for (Stmt statement : stmt.statements) {
+      compile(statement);
+    }
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    Label elseBranch = new Label();
+    test(stmt.condition);
+    file.jump(IFEQ, elseBranch);
+    compile(stmt.thenBranch);
+
+    if (stmt.elseBranch == null) {
+      file.mark(elseBranch);
+      return null;
+    }
+
+    Label end = new Label();
+    file.jump(GOTO, end);
+    file.mark(elseBranch);
+    compile(stmt.elseBranch);
+    file.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    file.local(ALOAD, compile(stmt.expression));
+    invoke(JIT, "print", "(" + OBJECT + ")V");
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      file.local(ALOAD, compile(stmt.value));
+    } else {
+      file.op(ACONST_NULL);
+    }
+    file.op(ARETURN);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      file.local(ALOAD, compile(stmt.initializer));
+    } else {
+      file.op(ACONST_NULL);
+    }
+
+    Scope scope = scopes.get(scopes.size() - 1);
+    file.local(ASTORE, scope.first + scope.declared++);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    Label loop = new Label();
+    Label end = new Label();
+    file.mark(loop);
+    test(stmt.condition);
+    file.jump(IFEQ, end);
+    compile(stmt.body);
+    file.jump(GOTO, loop);
+    file.mark(end);
+    return null;
+  }
+
+  @Override
+  public Integer visitAssignExpr(Expr.Assign expr) {
+    int value = compile(expr.value);
+
+    if (expr.depth == -1) {
+      file.local(ALOAD, 0);
+      loadToken(expr.name);
+      file.local(ALOAD, value);
+      invoke(JIT, "setGlobal", "(L" + INTERPRETER + ";" + TOKEN + OBJECT + ")V");
+    } else if (local(expr.depth, expr.slot) != -1) {
+      file.local(ALOAD, value);
+      file.local(ASTORE, local(expr.depth, expr.slot));
+    } else {
+      file.local(ALOAD, 1);
+      file.pushInt(expr.depth - scopes.size());
+      file.pushInt(expr.slot);
+      file.local(ALOAD, value);
+      file.op(INVOKEVIRTUAL, file.methodRef(ENVIRONMENT, "assignAt", "(II" + OBJECT + ")V"));
+    }
+    return value;
+  }
+
+  @Override
+  public Integer visitBinaryExpr(Expr.Binary expr) {
+    int left = compile(expr.left);
+    int right = compile(expr.right);
+
+    switch (expr.operator.type) {
+      case BANG_EQUAL: return operation("notEqual", null, left, right);
+      case EQUAL_EQUAL: return operation("equal", null, left, right);
+      case GREATER: return operation("greater", expr.operator, left, right);
+      case GREATER_EQUAL: return operation("greaterEqual", expr.operator, left, right);
+      case LESS: return operation("less", expr.operator, left, right);
+      case LESS_EQUAL: return operation("lessEqual", expr.operator, left, right);
+      case MINUS: return operation("subtract", expr.operator, left, right);
+      case PLUS: return operation("add", expr.operator, left, right);
+      case SLASH: return operation("divide", expr.operator, left, right);
+      case STAR: return operation("multiply", expr.operator, left, right);
+    }
+
+    // Unreachable.
+    throw new Unsupported();
+  }
+
+  @Override
+  public Integer visitCallExpr(Expr.Call expr) {
+    // A method call looks the method up before evaluating the arguments, as
+    // the Interpreter does, but leaves it unbound. The call then passes the
+    // instance along for the method's receiver.
+    int receiver = -1;
+    int callee;
+    if (expr.callee instanceof Expr.Get) {
+      Expr.Get property = (Expr.Get) expr.callee;
+      receiver = compile(property.object);
+      callee = property("getMethod", property.name, receiver);
+    } else {
+      callee = compile(expr.callee);
+    }
+
+    int[] arguments = new int[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = compile(expr.arguments.get(i));
+    }
+
+    StringBuilder descriptor = new StringBuilder("(L" + INTERPRETER + ";" + OBJECT);
+    file.local(ALOAD, 0);
+    file.local(ALOAD, callee);
+    if (receiver != -1) {
+      file.local(ALOAD, receiver);
+      descriptor.append(OBJECT);
+    }
+    for (int argument : arguments) {
+      file.local(ALOAD, argument);
+      descriptor.append(OBJECT);
+    }
+    descriptor.append(")").append(OBJECT);
+    maxStack = Math.max(maxStack, 3 + arguments.length);
+
+    // A call in tail position returns a TailCall instead of calling a Lox
+    // function, like it does in the Interpreter.
+    int bootstrap;
+    String name;
+    if (receiver != -1) {
+      bootstrap = file.bootstrap(JIT, "bootstrapInvoke", BOOTSTRAP, constantIndex(expr));
+      name = expr.tail ? "tailInvoke" : "invoke";
+    } else {
+      bootstrap = file.bootstrap(JIT, "bootstrapCall", BOOTSTRAP, constantIndex(expr.paren));
+      name = expr.tail ? "tailCall" : "call";
+    }
+    file.invokeDynamic(file.invokeDynamic(bootstrap, name, descriptor.toString()));
+
+    int result = temp();
+    file.local(ASTORE, result);
+    return result;
+  }
+
+  @Override
+  public Integer visitGetExpr(Expr.Get expr) {
+    return property("getProperty", expr.name, compile(expr.object));
+  }
+
+  @Override
+  public Integer visitGroupingExpr(Expr.Grouping expr) {
+    return compile(expr.expression);
+  }
+
+  @Override
+  public Integer visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      file.op(ACONST_NULL);
+    } else if (expr.value instanceof String) {
+      file.op(LDC_W, file.string((String) expr.value));
+    } else {
+      file.op(LDC_W, constant(expr.value, OBJECT));
+    }
+
+    int result = temp();
+    file.local(ASTORE, result);
+    return result;
+  }
+
+  @Override
+  public Integer visitLogicalExpr(Expr.Logical expr) {
+    int result = temp();
+    Label end = new Label();
+
+    file.local(ALOAD, compile(expr.left));
+    file.local(ASTORE, result);
+    file.local(ALOAD, result);
+    invoke(INTERPRETER, "isTruthy", "(" + OBJECT + ")Z");
+    file.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+
+    file.local(ALOAD, compile(expr.right));
+    file.local(ASTORE, result);
+    file.mark(end);
+    return result;
+  }
+
+  @Override
+  public Integer visitSetExpr(Expr.Set expr) {
+    int object = compile(expr.object);
+    file.local(ALOAD, object);
+    loadToken(expr.name);
+    invoke(JIT, "checkFields", "(" + OBJECT + TOKEN + ")V");
+
+    int value = compile(expr.value);
+    file.local(ALOAD, object);
+    file.local(ALOAD, value);
+    int bootstrap = file.bootstrap(
+        JIT, "bootstrapProperty", BOOTSTRAP, constantIndex(expr.name));
+    file.invokeDynamic(file.invokeDynamic(bootstrap, "setProperty", "(" + OBJECT + OBJECT + ")V"));
+    return value;
+  }
+
+  @Override
+  public Integer visitSuperExpr(Expr.Super expr) {
+    // "super" always belongs to the enclosing class, never to the function.
+    int superclass = temp();
+    loadFromClosure(expr.depth - scopes.size(), expr.slot);
+    file.local(ASTORE, superclass);
+    int object = variable(expr.keyword, expr.thisDepth, 0);
+
+    return operation("getSuper", expr.method, superclass, object);
+  }
+
+  @Override
+  public Integer visitThisExpr(Expr.This expr) {
+    return variable(expr.keyword, expr.depth, expr.slot);
+  }
+
+  @Override
+  public Integer visitUnaryExpr(Expr.Unary expr) {
+    int right = compile(expr.right);
+    if (expr.operator.type == TokenType.MINUS) {
+      return operation("negate", expr.operator, right);
+    }
+    return operation("not", null, right);
+  }
+
+  @Override
+  public Integer visitVariableExpr(Expr.Variable expr) {
+    return variable(expr.name, expr.depth, expr.slot);
+  }
+}
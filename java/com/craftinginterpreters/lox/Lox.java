@@ -1,36 +1,218 @@
 package com.craftinginterpreters.lox;
 
+import com.craftinginterpreters.lox.vm.InterpretResult;
+import com.craftinginterpreters.lox.vm.VM;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.List;
 
 public class Lox {
   private static final Interpreter interpreter = new Interpreter();
+  private static VM vm = null;
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
+  // Added to a token's line when reporting an error at it. Document sets it
+  // while it parses and resolves a declaration, whose tokens count lines
+  // from where the declaration starts.
+  static int tokenLineBase = 0;
+
+  // Keep checking the script for errors as it is edited instead of running
+  // it. See watchFile().
+  private static boolean watch = false;
+
+  // Run programs through the TreeCompiler, whose nodes evaluate arithmetic
+  // and conditions without boxing. --walk runs the AST with the Interpreter
+  // instead.
+  private static boolean compile = true;
+
+  // Rewrite the resolved AST with the Optimizer before running it, and
+  // print what it changed.
+  private static boolean optimize = false;
+  private static boolean reportOptimizations = false;
+
+  // Where to keep resolved trees of the scripts that have been run, if
+  // anywhere. See AstCache.
+  private static Path cacheDirectory = null;
+
+  // Load the globals from a HeapSnapshot before running, and save them to
+  // one after running the script.
+  private static Path restoreSnapshot = null;
+  private static Path saveSnapshot = null;
+
+  // Where to write the Profiler's collapsed stacks after running the
+  // script, if anywhere.
+  private static Path profile = null;
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    String script = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--cache") && i + 1 < args.length) {
+        cacheDirectory = Paths.get(args[++i]);
+      } else if (arg.equals("--snapshot") && i + 1 < args.length) {
+        restoreSnapshot = Paths.get(args[++i]);
+      } else if (arg.equals("--save-snapshot") && i + 1 < args.length) {
+        saveSnapshot = Paths.get(args[++i]);
+      } else if (arg.equals("--profile") && i + 1 < args.length) {
+        profile = Paths.get(args[++i]);
+      } else if (arg.equals("--compile")) {
+        compile = true;
+      } else if (arg.equals("--walk")) {
+        compile = false;
+      } else if (arg.equals("--optimize")) {
+        optimize = true;
+      } else if (arg.equals("--optimize-report")) {
+        optimize = true;
+        reportOptimizations = true;
+      } else if (arg.equals("--watch")) {
+        watch = true;
+      } else if (arg.equals("--jmx")) {
+        InterpreterStats.enable();
+      } else if (arg.equals("--jit")) {
+        Jit.enabled = true;
+      } else if (arg.equals("--vm")) {
+        vm = new VM();
+      } else if (script == null && !arg.startsWith("--")) {
+        script = arg;
+      } else {
+        usage();
+      }
+    }
+
+    // The VM has a heap of its own.
+    if (vm != null && (restoreSnapshot != null || saveSnapshot != null)) usage();
+    // The profile is written once the script finishes, and it only covers
+    // Lox functions.
+    if (profile != null && (script == null || vm != null)) usage();
+    if (watch && script == null) usage();
+
+    if (restoreSnapshot != null) {
+      try {
+        HeapSnapshot.restore(interpreter,
+            compile ? new TreeCompiler(interpreter) : null, restoreSnapshot);
+      } catch (IOException error) {
+        System.err.println("Could not load snapshot: " + error.getMessage());
+        System.exit(66);
+      }
+    }
+
+    if (watch) {
+      watchFile(script);
+    } else if (script != null) {
+      runFile(script);
     } else {
       runPrompt();
     }
   }
 
+  private static void usage() {
+    System.out.println("Usage: jlox [--optimize | --optimize-report] [--cache dir] " +
+        "[--snapshot file] [--save-snapshot file] [--profile file] [--jmx] [--compile | --walk] " +
+        "[--jit] [--vm] [script | --watch script]");
+    System.exit(64);
+  }
+
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    if (profile != null) Profiler.active = new Profiler(Paths.get(path).getFileName().toString());
+
+    // The optimizer's report is about work a cached tree skips.
+    if (cacheDirectory != null && !reportOptimizations) {
+      runCached(Files.readAllBytes(Paths.get(path)));
+    } else {
+      // The scanner decodes the file as it reads it instead of loading all
+      // of it first.
+      try (Reader reader = new InputStreamReader(
+          Files.newInputStream(Paths.get(path)), Charset.defaultCharset())) {
+        run(reader);
+      }
+    }
+
+    if (profile != null) {
+      Profiler profiler = Profiler.active;
+      Profiler.active = null;
+      profiler.printSummary(System.err);
+      profiler.writeCollapsed(profile);
+    }
 
     // Indicate an error in the exit code.
     if (hadError) System.exit(65);
     if (hadRuntimeError) System.exit(70);
+
+    if (saveSnapshot != null) HeapSnapshot.save(interpreter, saveSnapshot);
+  }
+
+  // Checks the script for syntax and resolution errors, and checks it again
+  // each time the file changes, the way an editor or language server would
+  // as it is typed. The script is kept in a Document, so each check only
+  // parses and resolves the declarations the change touched, and only
+  // reports the errors in those. Runs until the process is killed.
+  private static void watchFile(String path) throws IOException {
+    Path file = Paths.get(path).toAbsolutePath();
+    String text = new String(Files.readAllBytes(file), Charset.defaultCharset());
+    Document document = new Document(text);
+    reportChecked(document);
+
+    try (WatchService watcher = file.getFileSystem().newWatchService()) {
+      file.getParent().register(watcher,
+          StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      for (; ; ) {
+        WatchKey key;
+        try {
+          key = watcher.take();
+        } catch (InterruptedException error) {
+          return;
+        }
+
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (file.getFileName().equals(event.context())) changed = true;
+        }
+        key.reset();
+        if (!changed) continue;
+
+        String edited = new String(Files.readAllBytes(file), Charset.defaultCharset());
+
+        // Replace only the text between what the old and new contents start
+        // and end with, as an editor would send it.
+        int length = Math.min(text.length(), edited.length());
+        int prefix = 0;
+        while (prefix < length && text.charAt(prefix) == edited.charAt(prefix)) {
+          prefix++;
+        }
+        int suffix = 0;
+        while (suffix < length - prefix && text.charAt(text.length() - 1 - suffix) ==
+            edited.charAt(edited.length() - 1 - suffix)) {
+          suffix++;
+        }
+        if (prefix == text.length() && prefix == edited.length()) continue;
+
+        document.edit(prefix, text.length() - prefix - suffix,
+            edited.substring(prefix, edited.length() - suffix));
+        text = edited;
+        reportChecked(document);
+      }
+    }
+  }
+
+  private static void reportChecked(Document document) {
+    if (document.hadError()) {
+      System.err.println("The script has errors.");
+    } else {
+      System.err.println("The script has no errors.");
+    }
+    hadError = false;
   }
 
   private static void runPrompt() throws IOException {
@@ -39,26 +221,78 @@ public class Lox {
 
     for (; ; ) {
       System.out.print("> ");
-      run(reader.readLine());
+      run(new StringReader(reader.readLine()));
       hadError = false;
     }
   }
 
-  private static void run(String source) {
+  // Runs the tree cached for this source if there is one, or else runs the
+  // source and caches its tree.
+  private static void runCached(byte[] source) {
+    AstCache cache = new AstCache(cacheDirectory, source, optimize);
+    List<Stmt> statements = cache.load();
+    if (statements == null) {
+      statements = parse(new InputStreamReader(
+          new ByteArrayInputStream(source), Charset.defaultCharset()));
+      // Only trees without errors are cached.
+      if (statements == null) return;
+      cache.store(statements);
+    }
+
+    execute(statements);
+  }
+
+  private static void run(Reader source) {
+    List<Stmt> statements = parse(source);
+    if (statements != null) execute(statements);
+  }
+
+  // Scans, parses and resolves the source. Returns null if there was an
+  // error.
+  private static List<Stmt> parse(Reader source) {
+    // The parser pulls tokens from the scanner as it goes, so the two are
+    // timed together.
+    FlightEvents.FrontEndPhase phase = FlightEvents.beginPhase("scan and parse");
     Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
+    Parser parser = new Parser(scanner);
     List<Stmt> statements = parser.parse();
+    FlightEvents.endPhase(phase);
     // Stop if there was a syntax error.
-    if (hadError) return;
+    if (hadError) return null;
 
-    Resolver resolver = new Resolver(interpreter);
+    phase = FlightEvents.beginPhase("resolve");
+    Resolver resolver = new Resolver();
     resolver.resolve(statements);
+    FlightEvents.endPhase(phase);
 
     // Stop if there was a resolution error.
-    if (hadError) return;
+    if (hadError) return null;
+
+    if (optimize) {
+      phase = FlightEvents.beginPhase("optimize");
+      Optimizer optimizer = new Optimizer(resolver.unusedLocals);
+      statements = optimizer.optimize(statements);
 
-    interpreter.interpret(statements);
+      // Resolve the new tree, whose locals may be in different slots.
+      new Resolver().resolve(statements);
+      FlightEvents.endPhase(phase);
+      if (reportOptimizations) System.err.println(optimizer.report());
+    }
+
+    return statements;
+  }
+
+  private static void execute(List<Stmt> statements) {
+    if (vm != null) {
+      InterpretResult result = vm.interpret(statements);
+      if (result == InterpretResult.COMPILE_ERROR) hadError = true;
+      if (result == InterpretResult.RUNTIME_ERROR) hadRuntimeError = true;
+    } else if (compile) {
+      TreeCompiler compiler = new TreeCompiler(interpreter);
+      interpreter.interpret(compiler.compile(statements));
+    } else {
+      interpreter.interpret(statements);
+    }
   }
 
   private static void report(int line, String where, String message) {
@@ -67,10 +301,11 @@ public class Lox {
   }
 
   static void error(Token token, String message) {
+    int line = tokenLineBase + token.line;
     if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
+      report(line, " at end", message);
     } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
+      report(line, " at '" + token.lexeme + "'", message);
     }
   }
 
@@ -79,7 +314,9 @@ public class Lox {
   }
 
   static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+    if (FlightEvents.isRuntimeErrorEnabled()) FlightEvents.runtimeError(error);
+    int line = tokenLineBase + error.token.line;
+    System.err.println(error.getMessage() + "\n[line " + line + "]");
     hadRuntimeError = true;
   }
 }
@@ -1,9 +1,30 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 interface LoxCallable {
   int arity();
 
   Object call(Interpreter interpreter, List<Object> arguments);
+
+  // Calls with up to three arguments use these instead, so that the caller
+  // doesn't need to build a list. Callers only use them once they have
+  // checked the argument count against arity().
+  default Object call0(Interpreter interpreter) {
+    return call(interpreter, Collections.emptyList());
+  }
+
+  default Object call1(Interpreter interpreter, Object a) {
+    return call(interpreter, Collections.singletonList(a));
+  }
+
+  default Object call2(Interpreter interpreter, Object a, Object b) {
+    return call(interpreter, Arrays.asList(a, b));
+  }
+
+  default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    return call(interpreter, Arrays.asList(a, b, c));
+  }
 }
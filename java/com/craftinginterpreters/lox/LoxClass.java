@@ -1,29 +1,48 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class LoxClass implements LoxCallable {
   final String name;
   final LoxClass superclass;
-  private final Map<String, LoxFunction> methods;
+  // Including the ones it inherits.
+  final Map<String, LoxFunction> methods;
+  private final LoxFunction initializer;
+  private final int arity;
+
+  // Every instance starts with this shape. Since each class has its own, an
+  // instance's shape also pins down its class.
+  final Shape emptyShape = new Shape();
+
+  // How many fields instances have ended up with so far, used to size the
+  // field array of new ones.
+  int fieldCount = 0;
 
   LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
     this.name = name;
     this.superclass = superclass;
-    this.methods = methods;
-  }
-
-  LoxFunction findMethod(String name) {
-    if (methods.containsKey(name)) {
-      return methods.get(name);
-    }
 
+    // Copy the inherited methods down so that looking one up never walks the
+    // superclass chain.
     if (superclass != null) {
-      return superclass.findMethod(name);
+      this.methods = new HashMap<>(superclass.methods);
+      this.methods.putAll(methods);
+    } else {
+      this.methods = methods;
     }
 
-    return null;
+    this.initializer = this.methods.get("init");
+    this.arity = initializer == null ? 0 : initializer.arity();
+  }
+
+  LoxFunction findMethod(String name) {
+    LoxFunction method = methods.get(name);
+    if (method == null) InterpreterStats.methodMiss();
+    return method;
   }
 
   @Override
@@ -33,18 +52,77 @@ class LoxClass implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
+    if (FlightEvents.isInstantiationEnabled()) {
+      return FlightEvents.instantiate(this, interpreter, arguments);
+    }
+    return instantiate(interpreter, arguments);
+  }
+
+  Object instantiate(Interpreter interpreter, List<Object> arguments) {
+    if (Profiler.active != null) {
+      return Profiler.active.construct(this, interpreter, arguments);
+    }
+    return construct(interpreter, arguments);
+  }
+
+  // The profiler and the flight recorder only see calls made through call().
+  private static boolean isObserved() {
+    return Profiler.active != null || FlightEvents.isInstantiationEnabled();
+  }
+
+  Object construct(Interpreter interpreter, List<Object> arguments) {
     LoxInstance instance = new LoxInstance(this);
-    LoxFunction initializer = findMethod("init");
     if (initializer != null) {
-      initializer.bind(instance).call(interpreter, arguments);
+      initializer.invoke(interpreter, instance, arguments);
     }
     return instance;
   }
 
+  @Override
+  public Object call0(Interpreter interpreter) {
+    if (isObserved()) return call(interpreter, Collections.emptyList());
+    LoxInstance instance = new LoxInstance(this);
+    if (initializer != null) {
+      initializer.run(interpreter, initializer.frame(instance), instance);
+    }
+    return instance;
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    if (isObserved()) return call(interpreter, Collections.singletonList(a));
+    LoxInstance instance = new LoxInstance(this);
+    Environment frame = initializer.frame(instance);
+    frame.defineSlot(a);
+    initializer.run(interpreter, frame, instance);
+    return instance;
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    if (isObserved()) return call(interpreter, Arrays.asList(a, b));
+    LoxInstance instance = new LoxInstance(this);
+    Environment frame = initializer.frame(instance);
+    frame.defineSlot(a);
+    frame.defineSlot(b);
+    initializer.run(interpreter, frame, instance);
+    return instance;
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    if (isObserved()) return call(interpreter, Arrays.asList(a, b, c));
+    LoxInstance instance = new LoxInstance(this);
+    Environment frame = initializer.frame(instance);
+    frame.defineSlot(a);
+    frame.defineSlot(b);
+    frame.defineSlot(c);
+    initializer.run(interpreter, frame, instance);
+    return instance;
+  }
+
   @Override
   public int arity() {
-    LoxFunction initializer = findMethod("init");
-    if (initializer == null) return 0;
-    return initializer.arity();
+    return arity;
   }
 }
\ No newline at end of file
@@ -3,20 +3,38 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-  private final Stmt.Function declaration;
-  private final Environment closure;
-  private final boolean isInitializer;
+  final Stmt.Function declaration;
+  // The body compiled by the TreeCompiler, or null to interpret the
+  // declaration's statements.
+  private final StmtNode body;
+  final Environment closure;
+  final boolean isInitializer;
+  // The instance a bound method was looked up on. Null for functions and for
+  // the unbound methods in a class, which are called through invoke().
+  final LoxInstance receiver;
 
   LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    this(declaration, null, closure, isInitializer, null);
+  }
+
+  LoxFunction(
+      Stmt.Function declaration, StmtNode body, Environment closure, boolean isInitializer) {
+    this(declaration, body, closure, isInitializer, null);
+  }
+
+  private LoxFunction(Stmt.Function declaration, StmtNode body, Environment closure,
+      boolean isInitializer, LoxInstance receiver) {
     this.isInitializer = isInitializer;
     this.closure = closure;
     this.declaration = declaration;
+    this.body = body;
+    this.receiver = receiver;
   }
 
+  // Only needed when a method is used as a value. Calls made directly on an
+  // instance go through invoke() instead.
   LoxFunction bind(LoxInstance instance) {
-    Environment environment = new Environment(closure);
-    environment.define("this", instance);
-    return new LoxFunction(declaration, environment, isInitializer);
+    return new LoxFunction(declaration, body, closure, isInitializer, instance);
   }
 
   @Override
@@ -31,18 +49,118 @@ class LoxFunction implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    Environment environment = new Environment(closure);
-    for (int i = 0; i < declaration.params.size(); i++) {
-      environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    return invoke(interpreter, receiver, arguments);
+  }
+
+  @Override
+  public Object call0(Interpreter interpreter) {
+    if (Jit.enabled && Jit.canCall(this)) return Jit.call0(this, interpreter);
+    return run(interpreter, frame(receiver), receiver);
+  }
+
+  @Override
+  public Object call1(Interpreter interpreter, Object a) {
+    if (Jit.enabled && Jit.canCall(this)) return Jit.call1(this, interpreter, a);
+    Environment frame = frame(receiver);
+    frame.defineSlot(a);
+    return run(interpreter, frame, receiver);
+  }
+
+  @Override
+  public Object call2(Interpreter interpreter, Object a, Object b) {
+    if (Jit.enabled && Jit.canCall(this)) return Jit.call2(this, interpreter, a, b);
+    Environment frame = frame(receiver);
+    frame.defineSlot(a);
+    frame.defineSlot(b);
+    return run(interpreter, frame, receiver);
+  }
+
+  @Override
+  public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+    if (Jit.enabled && Jit.canCall(this)) return Jit.call3(this, interpreter, a, b, c);
+    Environment frame = frame(receiver);
+    frame.defineSlot(a);
+    frame.defineSlot(b);
+    frame.defineSlot(c);
+    return run(interpreter, frame, receiver);
+  }
+
+  // Runs the function with "this" set to the given instance, which is null
+  // unless the function is a method.
+  Object invoke(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+    Environment frame = frame(instance);
+    for (Object argument : arguments) {
+      frame.defineSlot(argument);
     }
+    return run(interpreter, frame, instance);
+  }
+
+  // Creates the environment a call runs in, holding "this" if the function
+  // is a method. Callers then define the arguments in it, in order, and pass
+  // it to run(). That way arguments go straight from the caller into their
+  // slots.
+  Environment frame(LoxInstance instance) {
+    Environment frame = new Environment(closure, declaration.slotCount);
+    if (instance != null) frame.defineSlot(instance);
+    return frame;
+  }
+
+  // A function whose body ends by returning the result of a call in tail
+  // position hands that call back here as a TailCall instead of making it.
+  // The loop then runs the callee in place of the caller, so recursion
+  // through tail calls uses constant Java stack, and the caller's frame can
+  // be collected.
+  Object run(Interpreter interpreter, Environment frame, LoxInstance instance) {
+    LoxFunction function = this;
+    while (true) {
+      Object value = Profiler.active == null
+          ? function.execute(interpreter, frame, instance)
+          : Profiler.active.execute(function, interpreter, frame, instance);
+      if (!(value instanceof TailCall)) return value;
+
+      TailCall call = (TailCall) value;
+      function = call.function;
+      frame = call.frame;
+      instance = call.instance;
+    }
+  }
+
+  Object execute(Interpreter interpreter, Environment frame, LoxInstance instance) {
+    InterpreterStats.call();
+    if (FlightEvents.isFunctionCallEnabled()) {
+      return FlightEvents.execute(this, interpreter, frame, instance);
+    }
+    return executeBody(interpreter, frame, instance);
+  }
+
+  Object executeBody(Interpreter interpreter, Environment frame, LoxInstance instance) {
+    if (Jit.enabled && !isInitializer && Jit.isHot(declaration, instance != null)) {
+      return Jit.invoke(declaration, interpreter, frame);
+    }
+
+    Object value;
+    if (body != null) {
+      value = body.execute(frame);
+    } else {
+      interpreter.executeBlock(declaration.body, frame);
+      value = interpreter.takeReturnValue();
+    }
+
+    if (value == StmtNode.NORMAL) return null;
+    if (isInitializer) return instance;
+    return value;
+  }
 
-    try {
-      interpreter.executeBlock(declaration.body, environment);
-    } catch (Return returnValue) {
-      if (isInitializer) return closure.getAt(0, "this");
+  // A call made from tail position, with its arguments already in the frame.
+  static class TailCall {
+    final LoxFunction function;
+    final Environment frame;
+    final LoxInstance instance;
 
-      return returnValue.value;
+    TailCall(LoxFunction function, Environment frame, LoxInstance instance) {
+      this.function = function;
+      this.frame = frame;
+      this.instance = instance;
     }
-    return null;
   }
 }
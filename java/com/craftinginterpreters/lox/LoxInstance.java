@@ -1,19 +1,21 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
-
 class LoxInstance {
-  private LoxClass klass;
-  private final Map<String, Object> fields = new HashMap<>();
+  final LoxClass klass;
+  Shape shape;
+  Object[] fields;
 
   LoxInstance(LoxClass klass) {
+    InterpreterStats.instance();
     this.klass = klass;
+    this.shape = klass.emptyShape;
+    this.fields = new Object[klass.fieldCount];
   }
 
   Object get(Token name) {
-    if (fields.containsKey(name.lexeme)) {
-      return fields.get(name.lexeme);
+    int index = shape.indexOf(name.lexeme);
+    if (index != -1) {
+      return fields[index];
     }
 
     LoxFunction method = klass.findMethod(name.lexeme);
@@ -24,11 +26,33 @@ class LoxInstance {
   }
 
   void set(Token name, Object value) {
-    fields.put(name.lexeme, value);
+    int index = shape.indexOf(name.lexeme);
+    if (index != -1) {
+      fields[index] = value;
+    } else {
+      add(shape.with(name.lexeme), value);
+    }
+  }
+
+  // Adds a field, moving the instance to the given shape, which must be a
+  // transition from its current one.
+  void add(Shape next, Object value) {
+    int index = shape.size();
+    if (index == fields.length) {
+      Object[] grown = new Object[Math.max(4, index * 2)];
+      System.arraycopy(fields, 0, grown, 0, index);
+      fields = grown;
+    }
+
+    fields[index] = value;
+    shape = next;
+
+    // Size later instances for the fields this one ended up with.
+    if (index >= klass.fieldCount) klass.fieldCount = index + 1;
   }
 
   @Override
   public String toString() {
     return klass.name + " instance";
   }
-}
\ No newline at end of file
+}
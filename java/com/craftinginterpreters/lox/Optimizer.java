@@ -0,0 +1,315 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// Rewrites a resolved syntax tree into a smaller one that behaves the same.
+// It folds operators whose operands are literals, drops branches and loops
+// whose condition is a literal, drops statements after a return, and removes
+// local variables nothing uses when their initializer can't have an effect.
+//
+// The rewritten tree is made of new nodes, and removing a declaration moves
+// the locals after it to different slots, so it must be resolved again
+// before it runs.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  // Returned by fold() for operands that would cause a runtime error, which
+  // is left to happen when the program runs.
+  private static final Object NOT_CONSTANT = new Object();
+
+  private final Set<Stmt.Var> unusedLocals;
+
+  private int foldedExpressions = 0;
+  private int constantConditions = 0;
+  private int unreachableStatements = 0;
+  private int unusedVariables = 0;
+
+  Optimizer(Set<Stmt.Var> unusedLocals) {
+    this.unusedLocals = unusedLocals;
+  }
+
+  List<Stmt> optimize(List<Stmt> statements) {
+    List<Stmt> optimized = new ArrayList<>();
+    for (int i = 0; i < statements.size(); i++) {
+      Stmt statement = optimize(statements.get(i));
+      if (statement != null) optimized.add(statement);
+
+      if (statement instanceof Stmt.Return) {
+        unreachableStatements += statements.size() - i - 1;
+        break;
+      }
+    }
+    return optimized;
+  }
+
+  String report() {
+    return "Optimizer: folded " + foldedExpressions + " constant expressions, " +
+        "simplified " + constantConditions + " statements with constant conditions, " +
+        "removed " + unreachableStatements + " unreachable statements and " +
+        unusedVariables + " unused variables.";
+  }
+
+  private Stmt optimize(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr optimize(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // Optimizes a statement that has to stay a statement, like the body of an
+  // if or a loop, even if there is nothing left of it.
+  private Stmt optimizeBody(Stmt stmt) {
+    Stmt optimized = optimize(stmt);
+    if (optimized == null) return new Stmt.Block(new ArrayList<>());
+    return optimized;
+  }
+
+  private Stmt.Function optimizeFunction(Stmt.Function function) {
+    return new Stmt.Function(function.name, function.params, optimize(function.body));
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    return new Stmt.Block(optimize(stmt.statements));
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    List<Stmt.Function> methods = new ArrayList<>();
+    for (Stmt.Function method : stmt.methods) {
+      methods.add(optimizeFunction(method));
+    }
+    return new Stmt.Class(stmt.name, stmt.superclass, methods);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    return new Stmt.Expression(optimize(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    return optimizeFunction(stmt);
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = optimize(stmt.condition);
+
+    if (condition instanceof Expr.Literal) {
+      constantConditions++;
+      if (Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+        return optimize(stmt.thenBranch);
+      } else if (stmt.elseBranch != null) {
+        return optimize(stmt.elseBranch);
+      }
+      return null;
+    }
+
+    Stmt elseBranch = null;
+    if (stmt.elseBranch != null) elseBranch = optimizeBody(stmt.elseBranch);
+    return new Stmt.If(condition, optimizeBody(stmt.thenBranch), elseBranch);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return new Stmt.Print(optimize(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    Expr value = null;
+    if (stmt.value != null) value = optimize(stmt.value);
+    return new Stmt.Return(stmt.keyword, value);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = null;
+    if (stmt.initializer != null) initializer = optimize(stmt.initializer);
+
+    if (unusedLocals.contains(stmt) && hasNoEffect(initializer)) {
+      unusedVariables++;
+      return null;
+    }
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = optimize(stmt.condition);
+
+    if (condition instanceof Expr.Literal &&
+        !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+      constantConditions++;
+      return null;
+    }
+
+    return new Stmt.While(condition, optimizeBody(stmt.body));
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    return new Expr.Assign(expr.name, optimize(expr.value));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+      Object value = fold(expr.operator,
+          ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+      if (value != NOT_CONSTANT) {
+        foldedExpressions++;
+        return new Expr.Literal(value);
+      }
+    }
+
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = optimize(expr.callee);
+
+    List<Expr> arguments = new ArrayList<>();
+    for (Expr argument : expr.arguments) {
+      arguments.add(optimize(argument));
+    }
+
+    return new Expr.Call(callee, expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    return new Expr.Get(optimize(expr.object), expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    Expr expression = optimize(expr.expression);
+    if (expression instanceof Expr.Literal) return expression;
+    return new Expr.Grouping(expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal) {
+      foldedExpressions++;
+      boolean isTruthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+      if (expr.operator.type == TokenType.OR) {
+        return isTruthy ? left : right;
+      } else {
+        return isTruthy ? right : left;
+      }
+    }
+
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    return new Expr.Set(optimize(expr.object), expr.name, optimize(expr.value));
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = optimize(expr.right);
+
+    if (right instanceof Expr.Literal) {
+      Object value = ((Expr.Literal) right).value;
+      switch (expr.operator.type) {
+        case BANG:
+          foldedExpressions++;
+          return new Expr.Literal(!Interpreter.isTruthy(value));
+        case MINUS:
+          if (value instanceof Double) {
+            foldedExpressions++;
+            return new Expr.Literal(-(double) value);
+          }
+          break;
+      }
+    }
+
+    return new Expr.Unary(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  // Evaluates a binary operator the way the Interpreter does.
+  private Object fold(Token operator, Object left, Object right) {
+    switch (operator.type) {
+      case BANG_EQUAL:
+        return !Interpreter.isEqual(left, right);
+      case EQUAL_EQUAL:
+        return Interpreter.isEqual(left, right);
+      case PLUS:
+        if (left instanceof String && right instanceof String) {
+          return (String) left + (String) right;
+        }
+        break;
+    }
+
+    // The remaining operators all need numbers.
+    if (!(left instanceof Double) || !(right instanceof Double)) return NOT_CONSTANT;
+
+    double a = (double) left;
+    double b = (double) right;
+    switch (operator.type) {
+      case GREATER:
+        return a > b;
+      case GREATER_EQUAL:
+        return a >= b;
+      case LESS:
+        return a < b;
+      case LESS_EQUAL:
+        return a <= b;
+      case MINUS:
+        return a - b;
+      case PLUS:
+        return a + b;
+      case SLASH:
+        return a / b;
+      case STAR:
+        return a * b;
+    }
+
+    return NOT_CONSTANT;
+  }
+
+  // Whether evaluating a var's initializer can do anything visible, including
+  // failing with a runtime error. Reading a global can fail if it's undefined.
+  private boolean hasNoEffect(Expr initializer) {
+    if (initializer == null) return true;
+    if (initializer instanceof Expr.Literal) return true;
+    if (initializer instanceof Expr.This) return true;
+    if (initializer instanceof Expr.Variable) {
+      return ((Expr.Variable) initializer).depth != -1;
+    }
+    return false;
+  }
+}
@@ -9,11 +9,12 @@ import java.util.List;
 class Parser {
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
-  private int current = 0;
+  // The parser never looks more than one token ahead, so it asks the scanner
+  // for each token as it needs it.
+  private final Scanner scanner;
 
-  Parser(List<Token> tokens) {
-    this.tokens = tokens;
+  Parser(Scanner scanner) {
+    this.scanner = scanner;
   }
 
   List<Stmt> parse() {
@@ -29,7 +30,7 @@ class Parser {
     return assignment();
   }
 
-  private Stmt declaration() {
+  Stmt declaration() {
     try {
       if (match(CLASS)) return classDeclaration();
       if (match(FUN)) return function("function");
@@ -43,7 +44,8 @@ class Parser {
   }
 
   private Stmt classDeclaration() {
-    Token name = consume(IDENTIFIER, "Expect class name.");
+    consume(IDENTIFIER, "Expect class name.");
+    Token name = previous();
 
     Expr.Variable superclass = null;
     if (match(LESS)) {
@@ -145,7 +147,8 @@ class Parser {
   }
 
   private Stmt varDeclaration() {
-    Token name = consume(IDENTIFIER, "Expect variable name.");
+    consume(IDENTIFIER, "Expect variable name.");
+    Token name = previous();
 
     Expr intializer = null;
     if (match(EQUAL)) {
@@ -172,7 +175,8 @@ class Parser {
   }
 
   private Stmt.Function function(String kind) {
-    Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+    consume(IDENTIFIER, "Expect " + kind + " name.");
+    Token name = previous();
     consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
     List<Token> parameters = new ArrayList<>();
     if (!check(RIGHT_PAREN)) {
@@ -181,7 +185,8 @@ class Parser {
           error(peek(), "Cannot have more than 255 parameters.");
         }
 
-        parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+        consume(IDENTIFIER, "Expect parameter name.");
+        parameters.add(previous());
       } while (match(COMMA));
     }
     consume(RIGHT_PAREN, "Expect ')' after parameters.");
@@ -316,7 +321,8 @@ class Parser {
       } while (match(COMMA));
     }
 
-    Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+    consume(RIGHT_PAREN, "Expect ')' after arguments.");
+    Token paren = previous();
 
     return new Expr.Call(callee, paren, arguments);
   }
@@ -328,8 +334,8 @@ class Parser {
       if (match(LEFT_PAREN)) {
         expr = finishCall(expr);
       } else if (match(DOT)) {
-        Token name = consume(IDENTIFIER,
-            "Expect property name after '.'.");
+        consume(IDENTIFIER, "Expect property name after '.'.");
+        Token name = previous();
         expr = new Expr.Get(expr, name);
       } else {
         break;
@@ -345,13 +351,14 @@ class Parser {
     if (match(NIL)) return new Expr.Literal(null);
 
     if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
+      return new Expr.Literal(scanner.literal(Scanner.PREVIOUS));
     }
 
     if (match(SUPER)) {
       Token keyword = previous();
       consume(DOT, "Expect '.' after 'super'.");
-      Token method = consume(IDENTIFIER, "Expect superclass method name.");
+      consume(IDENTIFIER, "Expect superclass method name.");
+      Token method = previous();
       return new Expr.Super(keyword, method);
     }
 
@@ -381,32 +388,36 @@ class Parser {
     return false;
   }
 
-  private Token consume(TokenType type, String message) {
-    if (check(type)) return advance();
+  // Callers that keep the token use previous() afterwards. Most tokens
+  // consumed this way are punctuation that doesn't need a Token object.
+  private void consume(TokenType type, String message) {
+    if (check(type)) {
+      advance();
+      return;
+    }
 
     throw error(peek(), message);
   }
 
   private boolean check(TokenType type) {
     if (isAtEnd()) return false;
-    return peek().type == type;
+    return scanner.type(Scanner.CURRENT) == type;
   }
 
-  private Token advance() {
-    if (!isAtEnd()) current++;
-    return previous();
+  private void advance() {
+    if (!isAtEnd()) scanner.nextToken();
   }
 
-  private boolean isAtEnd() {
-    return peek().type == EOF;
+  boolean isAtEnd() {
+    return scanner.type(Scanner.CURRENT) == EOF;
   }
 
   private Token peek() {
-    return tokens.get(current);
+    return scanner.token(Scanner.CURRENT);
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return scanner.token(Scanner.PREVIOUS);
   }
 
   private ParseError error(Token token, String message) {
@@ -418,9 +429,9 @@ class Parser {
     advance();
 
     while (!isAtEnd()) {
-      if (previous().type == SEMICOLON) return;
+      if (scanner.type(Scanner.PREVIOUS) == SEMICOLON) return;
 
-      switch (peek().type) {
+      switch (scanner.type(Scanner.CURRENT)) {
         case CLASS:
         case FUN:
         case VAR:
@@ -0,0 +1,188 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Times every call to a Lox function or class, for --profile.
+//
+// Calls are recorded in a tree with one node per distinct stack of
+// callees, so each node knows how often its function was called from
+// there and how long those calls took, including their callees. A function
+// is identified by its declaration, so every closure made from it counts
+// as the same function. A call made from tail position replaces its caller,
+// so it shows up as called by the caller's caller.
+//
+// LoxFunction and LoxClass only call in here when a profiler is active, so
+// without --profile the cost is a static field check per call. The JIT
+// doesn't link call sites straight to compiled code while profiling, since
+// those calls would skip LoxFunction.
+class Profiler {
+  static Profiler active = null;
+
+  private static class Node {
+    // A Stmt.Function or a LoxClass, or null for the top level of the
+    // script.
+    final Object callee;
+    final Node parent;
+    final Map<Object, Node> children = new IdentityHashMap<>();
+    long calls = 0;
+    // Nanoseconds spent in calls from this stack, callees included.
+    long time = 0;
+
+    Node(Object callee, Node parent) {
+      this.callee = callee;
+      this.parent = parent;
+    }
+
+    Node child(Object callee) {
+      Node child = children.get(callee);
+      if (child == null) {
+        child = new Node(callee, this);
+        children.put(callee, child);
+      }
+      return child;
+    }
+
+    long selfTime() {
+      long self = time;
+      for (Node child : children.values()) {
+        self -= child.time;
+      }
+      return self;
+    }
+  }
+
+  // The totals for one function across every stack it was called from.
+  private static class Entry {
+    final String name;
+    long calls = 0;
+    long selfTime = 0;
+    // Nanoseconds from the outermost call on each stack, so that recursive
+    // calls aren't counted more than once.
+    long inclusiveTime = 0;
+
+    Entry(String name) {
+      this.name = name;
+    }
+  }
+
+  private final String scriptName;
+  private final Node root = new Node(null, null);
+  private final long start;
+  private Node current = root;
+
+  Profiler(String scriptName) {
+    this.scriptName = scriptName;
+    this.start = System.nanoTime();
+  }
+
+  Object execute(LoxFunction function, Interpreter interpreter, Environment frame,
+                 LoxInstance instance) {
+    Node caller = enter(function.declaration);
+    long start = System.nanoTime();
+    try {
+      return function.execute(interpreter, frame, instance);
+    } finally {
+      exit(caller, start);
+    }
+  }
+
+  Object construct(LoxClass klass, Interpreter interpreter, List<Object> arguments) {
+    Node caller = enter(klass);
+    long start = System.nanoTime();
+    try {
+      return klass.construct(interpreter, arguments);
+    } finally {
+      exit(caller, start);
+    }
+  }
+
+  private Node enter(Object callee) {
+    Node caller = current;
+    current = caller.child(callee);
+    current.calls++;
+    return caller;
+  }
+
+  private void exit(Node caller, long start) {
+    current.time += System.nanoTime() - start;
+    current = caller;
+  }
+
+  // Writes each stack with the nanoseconds spent in the function at its
+  // top, one per line with the frames separated by semicolons, which is the
+  // collapsed format that flamegraph.pl and speedscope read.
+  void writeCollapsed(Path path) throws IOException {
+    root.time = System.nanoTime() - start;
+    try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writeCollapsed(writer, root, scriptName);
+    }
+  }
+
+  private void writeCollapsed(Writer writer, Node node, String stack) throws IOException {
+    long self = node.selfTime();
+    if (self > 0) writer.write(stack + " " + self + "\n");
+
+    for (Node child : node.children.values()) {
+      writeCollapsed(writer, child, stack + ";" + name(child.callee));
+    }
+  }
+
+  // Prints the totals for each function, the ones with the most self time
+  // first.
+  void printSummary(PrintStream out) {
+    Map<Object, Entry> entries = new IdentityHashMap<>();
+    for (Node child : root.children.values()) {
+      summarize(child, entries);
+    }
+
+    List<Entry> sorted = new ArrayList<>(entries.values());
+    sorted.sort((a, b) -> Long.compare(b.selfTime, a.selfTime));
+
+    out.println(String.format(Locale.ROOT, "%12s %12s %12s  %s",
+        "calls", "self ms", "total ms", "function"));
+    for (Entry entry : sorted) {
+      out.println(String.format(Locale.ROOT, "%12d %12.3f %12.3f  %s",
+          entry.calls, entry.selfTime / 1e6, entry.inclusiveTime / 1e6, entry.name));
+    }
+  }
+
+  private void summarize(Node node, Map<Object, Entry> entries) {
+    Entry entry = entries.get(node.callee);
+    if (entry == null) {
+      entry = new Entry(name(node.callee));
+      entries.put(node.callee, entry);
+    }
+
+    entry.calls += node.calls;
+    entry.selfTime += node.selfTime();
+    if (!isRecursive(node)) entry.inclusiveTime += node.time;
+
+    for (Node child : node.children.values()) {
+      summarize(child, entries);
+    }
+  }
+
+  private static boolean isRecursive(Node node) {
+    for (Node caller = node.parent; caller != null; caller = caller.parent) {
+      if (caller.callee == node.callee) return true;
+    }
+    return false;
+  }
+
+  private static String name(Object callee) {
+    if (callee instanceof LoxClass) return ((LoxClass) callee).name;
+
+    Token name = ((Stmt.Function) callee).name;
+    return name.lexeme + ":" + name.line;
+  }
+}
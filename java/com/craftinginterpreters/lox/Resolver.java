@@ -1,19 +1,16 @@
 package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Interpreter interpreter;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+  private final Stack<Map<String, Local>> scopes = new Stack<>();
   private FunctionType currentFunction = FunctionType.NONE;
 
-  Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
-  }
-
   private enum FunctionType {
     NONE,
     FUNCTION,
@@ -29,10 +26,30 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   private ClassType currentClass = ClassType.NONE;
 
+  // Local var declarations that nothing ever reads or assigns. The
+  // Optimizer removes them.
+  final Set<Stmt.Var> unusedLocals = new HashSet<>();
+
+  // A local variable's slot in its scope's environment, and whether its
+  // initializer has finished so that it can be read.
+  private static class Local {
+    final int slot;
+    // The var statement that declared it, if it was declared by one.
+    final Stmt.Var declaration;
+    boolean defined = false;
+    boolean used = false;
+
+    Local(int slot, Stmt.Var declaration) {
+      this.slot = slot;
+      this.declaration = declaration;
+    }
+  }
+
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
     beginScope();
     resolve(stmt.statements);
+    stmt.slotCount = scopes.peek().size();
     endScope();
     return null;
   }
@@ -56,12 +73,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     if (stmt.superclass != null) {
       beginScope();
-      scopes.peek().put("super", true);
+      declareSpecial("super");
     }
 
-    beginScope();
-    scopes.peek().put("this", true);
-
     for (Stmt.Function method : stmt.methods) {
       FunctionType declaration = FunctionType.METHOD;
       if (method.name.lexeme.equals("init")) {
@@ -70,8 +84,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       resolveFunction(method, declaration);
     }
 
-    endScope();
-
     if (stmt.superclass != null) endScope();
 
     currentClass = enclosingClass;
@@ -110,6 +122,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             "Cannot return a value from an initializer.");
       }
       resolve(stmt.value);
+
+      // Nothing is left to do in the function after this call, so it can
+      // reuse the caller's Java stack frame. See LoxFunction.run().
+      if (stmt.value instanceof Expr.Call) {
+        ((Expr.Call) stmt.value).tail = true;
+      }
     }
 
     return null;
@@ -124,7 +142,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
-    declare(stmt.name);
+    declare(stmt.name, stmt);
     if (stmt.initializer != null) {
       resolve(stmt.initializer);
     }
@@ -144,7 +162,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitAssignExpr(Expr.Assign expr) {
     resolve(expr.value);
-    resolveLocal(expr, expr.name);
+    expr.depth = resolveDepth(expr.name);
+    if (expr.depth != -1) expr.slot = resolveSlot(expr.name, expr.depth);
     return null;
   }
 
@@ -207,7 +226,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
           "Cannot use 'super' in a class with no superclass.");
     }
 
-    resolveLocal(expr, expr.keyword);
+    expr.depth = resolveDepth(expr.keyword);
+    if (expr.depth != -1) expr.slot = resolveSlot(expr.keyword, expr.depth);
+
+    // The method's receiver, which is always in slot 0.
+    expr.thisDepth = resolveDepth("this");
     return null;
   }
 
@@ -219,7 +242,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       return null;
     }
 
-    resolveLocal(expr, expr.keyword);
+    expr.depth = resolveDepth(expr.keyword);
+    if (expr.depth != -1) expr.slot = resolveSlot(expr.keyword, expr.depth);
     return null;
   }
 
@@ -231,11 +255,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
-    if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+    if (!scopes.isEmpty()
+        && scopes.peek().containsKey(expr.name.lexeme)
+        && !scopes.peek().get(expr.name.lexeme).defined) {
       Lox.error(expr.name, "Cannot read local variable in its own initializer.");
     }
 
-    resolveLocal(expr, expr.name);
+    expr.depth = resolveDepth(expr.name);
+    if (expr.depth != -1) expr.slot = resolveSlot(expr.name, expr.depth);
     return null;
   }
 
@@ -258,47 +285,81 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     currentFunction = type;
 
     beginScope();
+
+    // Like clox, a method keeps "this" in the first slot of its own scope,
+    // so calling one doesn't need an environment just to hold the receiver.
+    if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+      declareSpecial("this");
+    }
+
     for (Token param : function.params) {
       declare(param);
       define(param);
     }
     resolve(function.body);
+    function.slotCount = scopes.peek().size();
     endScope();
     currentFunction = enclosingFunction;
   }
 
   private void beginScope() {
-    scopes.push(new HashMap<String, Boolean>());
+    scopes.push(new HashMap<String, Local>());
   }
 
   private void endScope() {
-    scopes.pop();
+    for (Local local : scopes.pop().values()) {
+      if (local.declaration != null && !local.used) {
+        unusedLocals.add(local.declaration);
+      }
+    }
   }
 
   private void declare(Token name) {
+    declare(name, null);
+  }
+
+  private void declare(Token name, Stmt.Var declaration) {
     if (scopes.isEmpty()) return;
 
-    Map<String, Boolean> scope = scopes.peek();
+    Map<String, Local> scope = scopes.peek();
     if (scope.containsKey(name.lexeme)) {
       Lox.error(name,
           "Variable with this name already declared in this scope.");
+      return;
     }
-    scope.put(name.lexeme, false);
+    scope.put(name.lexeme, new Local(scope.size(), declaration));
+  }
+
+  private void declareSpecial(String name) {
+    Local local = new Local(scopes.peek().size(), null);
+    local.defined = true;
+    scopes.peek().put(name, local);
   }
 
   private void define(Token name) {
     if (scopes.isEmpty()) return;
-    scopes.peek().put(name.lexeme, true);
+    scopes.peek().get(name.lexeme).defined = true;
+  }
+
+  private int resolveDepth(Token name) {
+    return resolveDepth(name.lexeme);
   }
 
-  private void resolveLocal(Expr expr, Token name) {
+  private int resolveDepth(String name) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
-        return;
+      if (scopes.get(i).containsKey(name)) {
+        return scopes.size() - 1 - i;
       }
     }
 
     // Not found. Assume it is global.
+    return -1;
+  }
+
+  // Also marks the variable as used.
+  private int resolveSlot(Token name, int depth) {
+    Local local = scopes.get(scopes.size() - 1 - depth).get(name.lexeme);
+    local.used = true;
+    return local.slot;
   }
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// A Lox string made by concatenating two others. Joining two Java strings
+// copies both, so a loop that keeps appending to a string would take
+// quadratic time. Instead, "+" on long strings makes a Rope that points at its
+// operands, and the characters are copied once, the first time the whole
+// string is needed: when it is printed, compared or hashed.
+//
+// A Lox string value is either a java.lang.String or a Rope, so code that
+// checks for a string checks for a CharSequence.
+final class Rope implements CharSequence {
+  // Strings shorter than this are cheaper to copy than to link.
+  private static final int MIN_LENGTH = 64;
+
+  private final int length;
+  // The two halves, until the rope is flattened.
+  private CharSequence left;
+  private CharSequence right;
+  private String flattened;
+
+  private Rope(CharSequence left, CharSequence right) {
+    this.left = left;
+    this.right = right;
+    this.length = left.length() + right.length();
+  }
+
+  static CharSequence concat(CharSequence left, CharSequence right) {
+    if (left.length() == 0) return right;
+    if (right.length() == 0) return left;
+
+    if (left.length() + right.length() < MIN_LENGTH) {
+      return left.toString() + right.toString();
+    }
+    return new Rope(left, right);
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return toString().charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    if (flattened == null) flatten();
+    return flattened;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Rope)) return false;
+    return toString().equals(other.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+
+  // Ropes built in a loop are as deep as the loop ran, so walk them with an
+  // explicit stack instead of recursing.
+  private void flatten() {
+    StringBuilder builder = new StringBuilder(length);
+    Deque<CharSequence> pending = new ArrayDeque<>();
+    pending.push(this);
+
+    while (!pending.isEmpty()) {
+      CharSequence next = pending.pop();
+      if (next instanceof Rope && ((Rope) next).flattened == null) {
+        Rope rope = (Rope) next;
+        pending.push(rope.right);
+        pending.push(rope.left);
+      } else {
+        builder.append(next.toString());
+      }
+    }
+
+    flattened = builder.toString();
+    left = null;
+    right = null;
+  }
+}
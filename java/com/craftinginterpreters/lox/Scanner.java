@@ -2,53 +2,153 @@ package com.craftinginterpreters.lox;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+// Scans tokens one at a time as the Parser asks for them, reading the source
+// from a Reader as it goes. Only the text of the tokens the parser can see is
+// kept, so memory use doesn't grow with the size of the source.
+//
+// The parser only ever looks at two tokens: the one it consumed last and the
+// next one. They are kept in the PREVIOUS and CURRENT slots of parallel
+// arrays that record each token's type and where it is in the buffer. A
+// Token object, with its lexeme and literal, is only made when the parser
+// asks for one to keep in the AST or to report an error at, so most
+// punctuation and keywords never need one.
 class Scanner {
-  private static final Map<String, TokenType> keywords;
-
-  static {
-    keywords = new HashMap<>();
-    keywords.put("and", AND);
-    keywords.put("class", CLASS);
-    keywords.put("else", ELSE);
-    keywords.put("false", FALSE);
-    keywords.put("for", FOR);
-    keywords.put("fun", FUN);
-    keywords.put("if", IF);
-    keywords.put("nil", NIL);
-    keywords.put("or", OR);
-    keywords.put("print", PRINT);
-    keywords.put("return", RETURN);
-    keywords.put("super", SUPER);
-    keywords.put("this", THIS);
-    keywords.put("true", TRUE);
-    keywords.put("var", VAR);
-    keywords.put("while", WHILE);
-  }
-
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  static final int PREVIOUS = 0;
+  static final int CURRENT = 1;
+
+  private static final TokenType[] TYPES = TokenType.values();
+
+  // Powers of ten that a double holds exactly, for parseNumber().
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private static final int CHUNK_SIZE = 8192;
+
+  private final Reader reader;
+  private boolean readerEmpty = false;
+  // Where the buffer starts in the whole source.
+  private int offset;
+  // The source text that has been read but not yet scanned, starting with
+  // the current lexeme. Indexes below are into this buffer.
+  private char[] buffer = new char[CHUNK_SIZE];
+  private int limit = 0;
   private int start = 0;
   private int current = 0;
   private int line = 1;
+  // Tokens count lines from the one after this. See countLinesFrom().
+  private int lineBase = 0;
+
+  private final int[] types = new int[2];
+  private final int[] starts = new int[2];
+  private final int[] lengths = new int[2];
+  private final int[] lines = new int[2];
+  private final Token[] tokens = new Token[2];
+  // Whether scanToken() found a token, instead of only skipping whitespace
+  // or a comment.
+  private boolean found;
+
+  // Every identifier lexeme made so far, so that each name is only allocated
+  // once and the same name always gives the same String. It's a hash table
+  // with open addressing, looked up by the characters in the buffer.
+  private String[] names = new String[256];
+  private int nameCount = 0;
+
+  Scanner(Reader reader) {
+    this(reader, 0, 1);
+  }
+
+  // Scans a source that the reader has already read up to offset, which is
+  // on the given line.
+  Scanner(Reader reader, int offset, int line) {
+    this.reader = reader;
+    this.offset = offset;
+    this.line = line;
+    scanNext();
+  }
+
+  TokenType type(int slot) {
+    return TYPES[types[slot]];
+  }
+
+  // Where the token starts in the whole source.
+  int position(int slot) {
+    return offset + starts[slot];
+  }
+
+  // The line the token starts on. A token's line is the one it ends on,
+  // which is different for strings that span lines.
+  int startLine(int slot) {
+    int line = lines[slot];
+    for (int i = starts[slot]; i < starts[slot] + lengths[slot]; i++) {
+      if (buffer[i] == '\n') line--;
+    }
+    return line;
+  }
+
+  // Makes tokens from the current one on count lines from the given line,
+  // which becomes line 1. Document uses this so that a declaration's tokens
+  // don't change when lines are added or removed before it.
+  void countLinesFrom(int line) {
+    lineBase = line - 1;
+    tokens[CURRENT] = null;
+  }
+
+  Token token(int slot) {
+    if (tokens[slot] == null) {
+      String lexeme;
+      if (type(slot) == IDENTIFIER) {
+        lexeme = intern(starts[slot], lengths[slot]);
+      } else {
+        lexeme = new String(buffer, starts[slot], lengths[slot]);
+      }
+      tokens[slot] = new Token(type(slot), lexeme, literal(slot), lines[slot] - lineBase);
+    }
+    return tokens[slot];
+  }
 
-  Scanner(String source) {
-    this.source = source;
+  Object literal(int slot) {
+    switch (type(slot)) {
+      case NUMBER:
+        return parseNumber(starts[slot], lengths[slot]);
+      case STRING:
+        // Strip the quotes.
+        return new String(buffer, starts[slot] + 1, lengths[slot] - 2);
+      default:
+        return null;
+    }
+  }
+
+  // Makes the current token the previous one, and scans the next.
+  void nextToken() {
+    types[PREVIOUS] = types[CURRENT];
+    starts[PREVIOUS] = starts[CURRENT];
+    lengths[PREVIOUS] = lengths[CURRENT];
+    lines[PREVIOUS] = lines[CURRENT];
+    tokens[PREVIOUS] = tokens[CURRENT];
+    scanNext();
   }
 
-  List<Token> scanTokens() {
-    while (!isAtEnd()) {
+  private void scanNext() {
+    tokens[CURRENT] = null;
+    found = false;
+    while (!found) {
+      boolean atEnd = isAtEnd();
+
       // We are at the beginning of the next lexeme.
       start = current;
-      scanToken();
+      if (atEnd) {
+        addToken(EOF);
+      } else {
+        scanToken();
+      }
     }
-
-    tokens.add(new Token(EOF, "", null, line));
-    return tokens;
   }
 
   private void scanToken() {
@@ -99,13 +199,13 @@ class Scanner {
       case '/':
         if (match('/')) {
           // A comment goes until the end of the line.
-          while (peek() != '\n' && !isAtEnd()) advance();
+          while (peek() != '\n' && !isAtEnd()) skip();
         } else if (match('*')) {
           // A block comment goes until the next */ sequence. It does not nest.
-          while (!(peek() == '*' && peekNext() == '/') && !isAtEnd()) advance();
+          while (!(peek() == '*' && peekNext() == '/') && !isAtEnd()) skip();
           // Consume the closing */ characters.
-          advance();
-          advance();
+          skip();
+          skip();
         } else {
           addToken(SLASH);
         }
@@ -140,11 +240,94 @@ class Scanner {
   private void identifier() {
     while (isAlphaNumeric(peek())) advance();
 
-    String text = source.substring(start, current);
+    addToken(identifierType());
+  }
+
+  // Recognizes keywords straight from the buffer, like clox.
+  private TokenType identifierType() {
+    switch (buffer[start]) {
+      case 'a': return checkKeyword(1, "nd", AND);
+      case 'c': return checkKeyword(1, "lass", CLASS);
+      case 'e': return checkKeyword(1, "lse", ELSE);
+      case 'f':
+        if (current - start > 1) {
+          switch (buffer[start + 1]) {
+            case 'a': return checkKeyword(2, "lse", FALSE);
+            case 'o': return checkKeyword(2, "r", FOR);
+            case 'u': return checkKeyword(2, "n", FUN);
+          }
+        }
+        break;
+      case 'i': return checkKeyword(1, "f", IF);
+      case 'n': return checkKeyword(1, "il", NIL);
+      case 'o': return checkKeyword(1, "r", OR);
+      case 'p': return checkKeyword(1, "rint", PRINT);
+      case 'r': return checkKeyword(1, "eturn", RETURN);
+      case 's': return checkKeyword(1, "uper", SUPER);
+      case 't':
+        if (current - start > 1) {
+          switch (buffer[start + 1]) {
+            case 'h': return checkKeyword(2, "is", THIS);
+            case 'r': return checkKeyword(2, "ue", TRUE);
+          }
+        }
+        break;
+      case 'v': return checkKeyword(1, "ar", VAR);
+      case 'w': return checkKeyword(1, "hile", WHILE);
+    }
+
+    return IDENTIFIER;
+  }
+
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start == offset + rest.length() &&
+        matches(start + offset, rest)) {
+      return type;
+    }
+
+    return IDENTIFIER;
+  }
+
+  private boolean matches(int index, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (buffer[index + i] != text.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  private String intern(int index, int length) {
+    // The same hash as String.hashCode(), so that grow() can use that.
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + buffer[index + i];
+    }
+
+    int mask = names.length - 1;
+    int bucket = hash & mask;
+    while (names[bucket] != null) {
+      String name = names[bucket];
+      if (name.length() == length && matches(index, name)) return name;
+      bucket = (bucket + 1) & mask;
+    }
+
+    String name = new String(buffer, index, length);
+    names[bucket] = name;
+    nameCount++;
+    if (nameCount * 2 > names.length) growNames();
+    return name;
+  }
+
+  private void growNames() {
+    String[] old = names;
+    names = new String[old.length * 2];
+    int mask = names.length - 1;
+    for (String name : old) {
+      if (name == null) continue;
 
-    TokenType type = keywords.get(text);
-    if (type == null) type = IDENTIFIER;
-    addToken(type);
+      int bucket = name.hashCode() & mask;
+      while (names[bucket] != null) bucket = (bucket + 1) & mask;
+      names[bucket] = name;
+    }
   }
 
   private void number() {
@@ -158,7 +341,37 @@ class Scanner {
       while (isDigit(peek())) advance();
     }
 
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    addToken(NUMBER);
+  }
+
+  // Parses a number literal straight from the buffer. When the digits fit
+  // in a long that a double holds exactly and there are few enough decimal
+  // places, dividing by an exact power of ten rounds the same way
+  // Double.parseDouble() does. Anything else falls back to it.
+  private double parseNumber(int index, int length) {
+    long digits = 0;
+    int digitCount = 0;
+    int decimals = -1;
+    for (int i = index; i < index + length; i++) {
+      char c = buffer[i];
+      if (c == '.') {
+        decimals = 0;
+        continue;
+      }
+
+      if (decimals != -1) decimals++;
+
+      // Leading zeros aren't significant.
+      if (digitCount > 0 || c != '0') digitCount++;
+      if (digitCount <= 15) digits = digits * 10 + (c - '0');
+    }
+
+    if (decimals == -1) decimals = 0;
+    if (digitCount <= 15 && decimals < POWERS_OF_TEN.length) {
+      return digits / POWERS_OF_TEN[decimals];
+    }
+
+    return Double.parseDouble(new String(buffer, index, length));
   }
 
   private void string() {
@@ -176,13 +389,12 @@ class Scanner {
     // The closing ".
     advance();
 
-    String value = source.substring(start + 1, current - 1);
-    addToken(STRING, value);
+    addToken(STRING);
   }
 
   private boolean match(char expected) {
     if (isAtEnd()) return false;
-    if (source.charAt(current) != expected) return false;
+    if (buffer[current] != expected) return false;
 
     current++;
     return true;
@@ -190,12 +402,12 @@ class Scanner {
 
   private char peek() {
     if (isAtEnd()) return '\0';
-    return source.charAt(current);
+    return buffer[current];
   }
 
   private char peekNext() {
-    if (current + 1 >= source.length()) return '\0';
-    return source.charAt(current + 1);
+    if (current + 1 >= limit && !fill(current + 1)) return '\0';
+    return buffer[current + 1];
   }
 
   private boolean isAlpha(char c) {
@@ -211,20 +423,65 @@ class Scanner {
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= limit && !fill(current);
   }
 
   private char advance() {
+    if (isAtEnd()) return '\0';
     current++;
-    return source.charAt(current - 1);
+    return buffer[current - 1];
   }
 
-  private void addToken(TokenType type) {
-    addToken(type, null);
+  // Consumes a character that isn't part of any token, like one in a
+  // comment, so that the buffer doesn't have to keep it.
+  private void skip() {
+    advance();
+    start = current;
   }
 
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+  // Reads from the source until the buffer holds the character at index.
+  // Returns false if the source ends first. Reading may move the contents of
+  // the buffer, so callers must index it again afterwards.
+  private boolean fill(int index) {
+    while (index >= limit) {
+      if (readerEmpty) return false;
+
+      // Drop the text before the previous token, which is the oldest one
+      // that may still need its lexeme, and make room for more.
+      int keep = Math.min(start, starts[PREVIOUS]);
+      if (keep > 0) {
+        System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+        offset += keep;
+        limit -= keep;
+        current -= keep;
+        index -= keep;
+        start -= keep;
+        starts[PREVIOUS] -= keep;
+      }
+      if (limit == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+
+      try {
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+          readerEmpty = true;
+        } else {
+          limit += read;
+        }
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }
+
+    return true;
+  }
+
+  private void addToken(TokenType type) {
+    types[CURRENT] = type.ordinal();
+    starts[CURRENT] = start;
+    lengths[CURRENT] = current - start;
+    lines[CURRENT] = line;
+    found = true;
   }
 }
@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The layout of an instance's fields: which index in its field array holds
+// each one. Instances start with their class's empty shape and move along a
+// transition each time they gain a field, so instances of a class that gain
+// the same fields in the same order share a Shape. Get and Set expressions
+// cache the last shape they saw, which lets them skip the name lookup. The
+// bytecode VM's instances use the same shapes.
+public class Shape {
+  private final Map<String, Integer> indexes;
+  private final Map<String, Shape> transitions = new HashMap<>();
+
+  public Shape() {
+    this(new HashMap<>());
+  }
+
+  private Shape(Map<String, Integer> indexes) {
+    this.indexes = indexes;
+  }
+
+  public int size() {
+    return indexes.size();
+  }
+
+  // The field names, in index order.
+  String[] names() {
+    String[] names = new String[indexes.size()];
+    for (Map.Entry<String, Integer> entry : indexes.entrySet()) {
+      names[entry.getValue()] = entry.getKey();
+    }
+    return names;
+  }
+
+  // Returns the index of the field, or -1 if the shape doesn't have it.
+  public int indexOf(String name) {
+    Integer index = indexes.get(name);
+    if (index == null) return -1;
+    return index;
+  }
+
+  // Returns the shape of an instance with this shape after it gains a field.
+  public Shape with(String name) {
+    Shape shape = transitions.get(name);
+    if (shape == null) {
+      Map<String, Integer> next = new HashMap<>(indexes);
+      next.put(name, indexes.size());
+      shape = new Shape(next);
+      transitions.put(name, shape);
+    }
+    return shape;
+  }
+}
@@ -0,0 +1,233 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// A statement compiled by the TreeCompiler. Unlike the Interpreter, nodes are
+// handed the environment to run in instead of reading it from a field.
+//
+// Executing a statement returns NORMAL if execution should carry on with the
+// next statement. Otherwise a return statement ran, and the result is the
+// value it returned. Statements that contain others pass that result
+// straight up to the function being called.
+abstract class StmtNode {
+  static final Object NORMAL = new Object();
+
+  abstract Object execute(Environment environment);
+
+  // Runs statements in the environment it is given. Used for whole programs
+  // and function bodies, whose scope is created by the caller.
+  static class Sequence extends StmtNode {
+    Sequence(StmtNode[] statements) {
+      this.statements = statements;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      for (StmtNode statement : statements) {
+        InterpreterStats.statement();
+        Object result = statement.execute(environment);
+        if (result != NORMAL) return result;
+      }
+      return NORMAL;
+    }
+
+    final StmtNode[] statements;
+  }
+
+  static class Block extends StmtNode {
+    Block(StmtNode[] statements, int slotCount) {
+      this.statements = statements;
+      this.slotCount = slotCount;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      Environment scope = new Environment(environment, slotCount);
+      for (StmtNode statement : statements) {
+        InterpreterStats.statement();
+        Object result = statement.execute(scope);
+        if (result != NORMAL) return result;
+      }
+      return NORMAL;
+    }
+
+    final StmtNode[] statements;
+    final int slotCount;
+  }
+
+  static class Class extends StmtNode {
+    Class(Token name, ExprNode superclass, Token superclassName, Method[] methods) {
+      this.name = name;
+      this.superclass = superclass;
+      this.superclassName = superclassName;
+      this.methods = methods;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      Object parent = null;
+      if (superclass != null) {
+        parent = superclass.evaluate(environment);
+        if (!(parent instanceof LoxClass)) {
+          throw new RuntimeError(superclassName, "Superclass must be a class.");
+        }
+      }
+
+      Environment closure = environment;
+      if (superclass != null) {
+        closure = new Environment(environment, 1);
+        closure.define("super", parent);
+      }
+
+      Map<String, LoxFunction> functions = new HashMap<>();
+      for (Method method : methods) {
+        String methodName = method.declaration.name.lexeme;
+        functions.put(methodName,
+            new LoxFunction(method.declaration, method.body, closure, methodName.equals("init")));
+      }
+
+      environment.define(name.lexeme, new LoxClass(name.lexeme, (LoxClass) parent, functions));
+      return NORMAL;
+    }
+
+    final Token name;
+    final ExprNode superclass;
+    final Token superclassName;
+    final Method[] methods;
+  }
+
+  static class Method {
+    Method(Stmt.Function declaration, StmtNode body) {
+      this.declaration = declaration;
+      this.body = body;
+    }
+
+    final Stmt.Function declaration;
+    final StmtNode body;
+  }
+
+  static class Expression extends StmtNode {
+    Expression(ExprNode expression) {
+      this.expression = expression;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      expression.evaluate(environment);
+      return NORMAL;
+    }
+
+    final ExprNode expression;
+  }
+
+  static class Function extends StmtNode {
+    Function(Stmt.Function declaration, StmtNode body) {
+      this.declaration = declaration;
+      this.body = body;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      environment.define(declaration.name.lexeme,
+          new LoxFunction(declaration, body, environment, false));
+      return NORMAL;
+    }
+
+    final Stmt.Function declaration;
+    final StmtNode body;
+  }
+
+  static class If extends StmtNode {
+    If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+      this.condition = condition;
+      this.thenBranch = thenBranch;
+      this.elseBranch = elseBranch;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      if (condition.evaluateBoolean(environment)) {
+        InterpreterStats.statement();
+        return thenBranch.execute(environment);
+      } else if (elseBranch != null) {
+        InterpreterStats.statement();
+        return elseBranch.execute(environment);
+      }
+      return NORMAL;
+    }
+
+    final ExprNode condition;
+    final StmtNode thenBranch;
+    final StmtNode elseBranch;
+  }
+
+  static class Print extends StmtNode {
+    Print(ExprNode expression) {
+      this.expression = expression;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      System.out.println(Interpreter.stringify(expression.evaluate(environment)));
+      return NORMAL;
+    }
+
+    final ExprNode expression;
+  }
+
+  static class Return extends StmtNode {
+    Return(ExprNode value) {
+      this.value = value;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      if (value == null) return null;
+      return value.evaluate(environment);
+    }
+
+    final ExprNode value;
+  }
+
+  static class Var extends StmtNode {
+    Var(Token name, ExprNode initializer) {
+      this.name = name;
+      this.initializer = initializer;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      Object value = null;
+      if (initializer != null) {
+        value = initializer.evaluate(environment);
+      }
+
+      environment.define(name.lexeme, value);
+      return NORMAL;
+    }
+
+    final Token name;
+    final ExprNode initializer;
+  }
+
+  static class While extends StmtNode {
+    While(ExprNode condition, StmtNode body) {
+      this.condition = condition;
+      this.body = body;
+    }
+
+    @Override
+    Object execute(Environment environment) {
+      while (condition.evaluateBoolean(environment)) {
+        InterpreterStats.statement();
+        Object result = body.execute(environment);
+        if (result != NORMAL) return result;
+      }
+      return NORMAL;
+    }
+
+    final ExprNode condition;
+    final StmtNode body;
+  }
+}
@@ -1,6 +1,6 @@
 package com.craftinginterpreters.lox;
 
-enum TokenType {
+public enum TokenType {
   // Single-character tokens.
   LEFT_PAREN,
   RIGHT_PAREN,
@@ -0,0 +1,221 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Compiles a resolved syntax tree into ExprNode and StmtNode trees. All the
+// decisions the Interpreter makes on every visit, such as which operator a
+// Binary is or whether a variable is local, are made once here instead.
+class TreeCompiler implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+  private final Interpreter interpreter;
+
+  TreeCompiler(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  StmtNode compile(List<Stmt> statements) {
+    return new StmtNode.Sequence(compileAll(statements));
+  }
+
+  private StmtNode[] compileAll(List<Stmt> statements) {
+    StmtNode[] nodes = new StmtNode[statements.size()];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = compile(statements.get(i));
+    }
+    return nodes;
+  }
+
+  private StmtNode compile(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private ExprNode compile(Expr expr) {
+    return expr.accept(this);
+  }
+
+  StmtNode compileBody(Stmt.Function function) {
+    return new StmtNode.Sequence(compileAll(function.body));
+  }
+
+  @Override
+  public StmtNode visitBlockStmt(Stmt.Block stmt) {
+    return new StmtNode.Block(compileAll(stmt.statements), stmt.slotCount);
+  }
+
+  @Override
+  public StmtNode visitClassStmt(Stmt.Class stmt) {
+    ExprNode superclass = null;
+    Token superclassName = null;
+    if (stmt.superclass != null) {
+      superclass = compile(stmt.superclass);
+      superclassName = stmt.superclass.name;
+    }
+
+    StmtNode.Method[] methods = new StmtNode.Method[stmt.methods.size()];
+    for (int i = 0; i < methods.length; i++) {
+      Stmt.Function method = stmt.methods.get(i);
+      methods[i] = new StmtNode.Method(method, compileBody(method));
+    }
+
+    return new StmtNode.Class(stmt.name, superclass, superclassName, methods);
+  }
+
+  @Override
+  public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+    return new StmtNode.Expression(compile(stmt.expression));
+  }
+
+  @Override
+  public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+    return new StmtNode.Function(stmt, compileBody(stmt));
+  }
+
+  @Override
+  public StmtNode visitIfStmt(Stmt.If stmt) {
+    StmtNode elseBranch = null;
+    if (stmt.elseBranch != null) elseBranch = compile(stmt.elseBranch);
+    return new StmtNode.If(compile(stmt.condition), compile(stmt.thenBranch), elseBranch);
+  }
+
+  @Override
+  public StmtNode visitPrintStmt(Stmt.Print stmt) {
+    return new StmtNode.Print(compile(stmt.expression));
+  }
+
+  @Override
+  public StmtNode visitReturnStmt(Stmt.Return stmt) {
+    ExprNode value = null;
+    if (stmt.value != null) value = compile(stmt.value);
+    return new StmtNode.Return(value);
+  }
+
+  @Override
+  public StmtNode visitVarStmt(Stmt.Var stmt) {
+    ExprNode initializer = null;
+    if (stmt.initializer != null) initializer = compile(stmt.initializer);
+    return new StmtNode.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public StmtNode visitWhileStmt(Stmt.While stmt) {
+    return new StmtNode.While(compile(stmt.condition), compile(stmt.body));
+  }
+
+  @Override
+  public ExprNode visitAssignExpr(Expr.Assign expr) {
+    ExprNode value = compile(expr.value);
+    if (expr.depth != -1) {
+      return new ExprNode.LocalSet(expr.depth, expr.slot, value);
+    }
+    return new ExprNode.GlobalSet(interpreter.globals, expr.name, value);
+  }
+
+  @Override
+  public ExprNode visitBinaryExpr(Expr.Binary expr) {
+    ExprNode left = compile(expr.left);
+    ExprNode right = compile(expr.right);
+
+    switch (expr.operator.type) {
+      case BANG_EQUAL:
+        return new ExprNode.NotEqual(left, expr.operator, right);
+      case EQUAL_EQUAL:
+        return new ExprNode.Equal(left, expr.operator, right);
+      case GREATER:
+        return new ExprNode.Greater(left, expr.operator, right);
+      case GREATER_EQUAL:
+        return new ExprNode.GreaterEqual(left, expr.operator, right);
+      case LESS:
+        return new ExprNode.Less(left, expr.operator, right);
+      case LESS_EQUAL:
+        return new ExprNode.LessEqual(left, expr.operator, right);
+      case MINUS:
+        return new ExprNode.Subtract(left, expr.operator, right);
+      case PLUS:
+        return new ExprNode.Add(left, expr.operator, right);
+      case SLASH:
+        return new ExprNode.Divide(left, expr.operator, right);
+      case STAR:
+        return new ExprNode.Multiply(left, expr.operator, right);
+    }
+
+    // Unreachable.
+    throw new IllegalArgumentException("Unknown binary operator " + expr.operator.type);
+  }
+
+  @Override
+  public ExprNode visitCallExpr(Expr.Call expr) {
+    ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = compile(expr.arguments.get(i));
+    }
+
+    // Method calls skip creating a bound method.
+    if (expr.callee instanceof Expr.Get) {
+      ExprNode.Get property = (ExprNode.Get) compile(expr.callee);
+      return new ExprNode.Invoke(interpreter, property, expr.paren, arguments, expr.tail);
+    }
+
+    if (expr.callee instanceof Expr.Super) {
+      ExprNode.Super method = (ExprNode.Super) compile(expr.callee);
+      return new ExprNode.SuperInvoke(interpreter, method, expr.paren, arguments, expr.tail);
+    }
+
+    return new ExprNode.Call(
+        interpreter, compile(expr.callee), expr.paren, arguments, expr.tail);
+  }
+
+  @Override
+  public ExprNode visitGetExpr(Expr.Get expr) {
+    return new ExprNode.Get(compile(expr.object), expr.name);
+  }
+
+  @Override
+  public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+    // Grouping only matters to the parser.
+    return compile(expr.expression);
+  }
+
+  @Override
+  public ExprNode visitLiteralExpr(Expr.Literal expr) {
+    return new ExprNode.Constant(expr.value);
+  }
+
+  @Override
+  public ExprNode visitLogicalExpr(Expr.Logical expr) {
+    if (expr.operator.type == TokenType.OR) {
+      return new ExprNode.Or(compile(expr.left), compile(expr.right));
+    }
+    return new ExprNode.And(compile(expr.left), compile(expr.right));
+  }
+
+  @Override
+  public ExprNode visitSetExpr(Expr.Set expr) {
+    return new ExprNode.Set(compile(expr.object), expr.name, compile(expr.value));
+  }
+
+  @Override
+  public ExprNode visitSuperExpr(Expr.Super expr) {
+    return new ExprNode.Super(expr.depth, expr.slot, expr.thisDepth, expr.method);
+  }
+
+  @Override
+  public ExprNode visitThisExpr(Expr.This expr) {
+    return new ExprNode.LocalGet(expr.depth, expr.slot);
+  }
+
+  @Override
+  public ExprNode visitUnaryExpr(Expr.Unary expr) {
+    ExprNode right = compile(expr.right);
+    if (expr.operator.type == TokenType.MINUS) {
+      return new ExprNode.Negate(expr.operator, right);
+    }
+    return new ExprNode.Not(right);
+  }
+
+  @Override
+  public ExprNode visitVariableExpr(Expr.Variable expr) {
+    if (expr.depth != -1) {
+      return new ExprNode.LocalGet(expr.depth, expr.slot);
+    }
+    return new ExprNode.GlobalGet(interpreter.globals, expr.name);
+  }
+}
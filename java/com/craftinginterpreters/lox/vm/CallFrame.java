@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox.vm;
+
+class CallFrame {
+  ObjClosure closure;
+  // The closure's code and tables, copied here so that entering or returning
+  // to the frame loads them with one hop instead of going through the
+  // closure and its function.
+  byte[] code;
+  Object[] constants;
+  double[] numbers;
+  InlineCache[] caches;
+  int ip;
+  // Index of the frame's first stack slot, which holds the callee.
+  int slots;
+}
@@ -0,0 +1,28 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class Chunk {
+  byte[] code = new byte[8];
+  int[] lines = new int[8];
+  int count = 0;
+  final List<Object> constants = new ArrayList<>();
+
+  void write(byte b, int line) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      lines = Arrays.copyOf(lines, count * 2);
+    }
+
+    code[count] = b;
+    lines[count] = line;
+    count++;
+  }
+
+  int addConstant(Object value) {
+    constants.add(value);
+    return constants.size() - 1;
+  }
+}
@@ -0,0 +1,769 @@
+package com.craftinginterpreters.lox.vm;
+
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Token;
+import com.craftinginterpreters.lox.TokenType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Compiles a parsed program to bytecode. This is clox's single-pass compiler
+// with the parsing taken out: it walks the same AST as the tree-walk
+// interpreter instead of consuming tokens. The Resolver has already reported
+// every static error, so only the bytecode format's own limits are checked.
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private static final int UINT8_COUNT = 256;
+
+  private enum FunctionType {
+    FUNCTION,
+    INITIALIZER,
+    METHOD,
+    SCRIPT
+  }
+
+  private static class Local {
+    final String name;
+    int depth;
+    boolean isCaptured = false;
+
+    Local(String name, int depth) {
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+
+  private static class Upvalue {
+    final int index;
+    final boolean isLocal;
+
+    Upvalue(int index, boolean isLocal) {
+      this.index = index;
+      this.isLocal = isLocal;
+    }
+  }
+
+  // The state for the function currently being compiled, chained to the
+  // functions that enclose it.
+  private static class FunctionCompiler {
+    final FunctionCompiler enclosing;
+    final ObjFunction function;
+    final FunctionType type;
+    final List<Local> locals = new ArrayList<>();
+    final List<Upvalue> upvalues = new ArrayList<>();
+    int scopeDepth = 0;
+
+    FunctionCompiler(FunctionCompiler enclosing, FunctionType type, String name) {
+      this.enclosing = enclosing;
+      this.type = type;
+      this.function = new ObjFunction(name);
+
+      // Slot zero holds the receiver for methods and the callee otherwise.
+      boolean hasReceiver = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+      locals.add(new Local(hasReceiver ? "this" : "", 0));
+    }
+  }
+
+  private static class ClassCompiler {
+    final ClassCompiler enclosing;
+    boolean hasSuperclass = false;
+
+    ClassCompiler(ClassCompiler enclosing) {
+      this.enclosing = enclosing;
+    }
+  }
+
+  // Every global variable name the VM has seen, mapped to its index in the
+  // VM's globals. Names the program uses get the next index the first time
+  // they are seen, so the VM never looks a global up by name.
+  private final Map<String, Integer> globals;
+
+  private FunctionCompiler current = null;
+  private ClassCompiler currentClass = null;
+  // The line of the last token seen, used for every instruction emitted
+  // until the next one. Not every AST node carries a token.
+  private int line = 1;
+  private boolean hadError = false;
+
+  Compiler(Map<String, Integer> globals) {
+    this.globals = globals;
+  }
+
+  // Returns null if the program does not fit in the bytecode format.
+  ObjFunction compile(List<Stmt> statements) {
+    current = new FunctionCompiler(null, FunctionType.SCRIPT, null);
+    for (Stmt statement : statements) {
+      compile(statement);
+    }
+
+    ObjFunction function = endCompiler();
+    return hadError ? null : function;
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  private void error(String message) {
+    System.err.println("[line " + line + "] Error: " + message);
+    hadError = true;
+  }
+
+  private Chunk currentChunk() {
+    return current.function.chunk;
+  }
+
+  private void emitByte(byte b) {
+    currentChunk().write(b, line);
+  }
+
+  private void emitBytes(byte byte1, byte byte2) {
+    emitByte(byte1);
+    emitByte(byte2);
+  }
+
+  private void emitShort(int value) {
+    emitByte((byte) ((value >> 8) & 0xff));
+    emitByte((byte) (value & 0xff));
+  }
+
+  private void emitLoop(int loopStart) {
+    emitByte(OpCode.LOOP);
+
+    int offset = currentChunk().count - loopStart + 2;
+    if (offset > 0xffff) error("Loop body too large.");
+
+    emitShort(offset);
+  }
+
+  private int emitJump(byte instruction) {
+    emitByte(instruction);
+    emitShort(0xffff);
+    return currentChunk().count - 2;
+  }
+
+  private void emitReturn() {
+    if (current.type == FunctionType.INITIALIZER) {
+      emitBytes(OpCode.GET_LOCAL, (byte) 0);
+    } else {
+      emitByte(OpCode.NIL);
+    }
+
+    emitByte(OpCode.RETURN);
+  }
+
+  private int makeConstant(Object value) {
+    int constant = currentChunk().addConstant(value);
+    if (constant > 0xffff) {
+      error("Too many constants in one chunk.");
+      return 0;
+    }
+
+    return constant;
+  }
+
+  private void emitConstant(Object value) {
+    emitByte(OpCode.CONSTANT);
+    emitShort(makeConstant(value));
+  }
+
+  private void patchJump(int offset) {
+    // -2 to adjust for the bytecode for the jump offset itself.
+    int jump = currentChunk().count - offset - 2;
+
+    if (jump > 0xffff) {
+      error("Too much code to jump over.");
+    }
+
+    currentChunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+    currentChunk().code[offset + 1] = (byte) (jump & 0xff);
+  }
+
+  private ObjFunction endCompiler() {
+    emitReturn();
+    ObjFunction function = current.function;
+    function.constants = function.chunk.constants.toArray();
+    function.numbers = new double[function.constants.length];
+    for (int i = 0; i < function.constants.length; i++) {
+      if (function.constants[i] instanceof Double) {
+        function.numbers[i] = (double) function.constants[i];
+        function.constants[i] = VM.NUMBER;
+      }
+    }
+    function.caches = new InlineCache[function.cacheCount];
+    for (int i = 0; i < function.caches.length; i++) {
+      function.caches[i] = new InlineCache();
+    }
+
+    current = current.enclosing;
+    return function;
+  }
+
+  private void beginScope() {
+    current.scopeDepth++;
+  }
+
+  private void endScope() {
+    current.scopeDepth--;
+
+    List<Local> locals = current.locals;
+    while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+      if (locals.get(locals.size() - 1).isCaptured) {
+        emitByte(OpCode.CLOSE_UPVALUE);
+      } else {
+        emitByte(OpCode.POP);
+      }
+      locals.remove(locals.size() - 1);
+    }
+  }
+
+  private int identifierConstant(String name) {
+    return makeConstant(name);
+  }
+
+  private int globalIndex(String name) {
+    Integer index = globals.get(name);
+    if (index != null) return index;
+
+    if (globals.size() > 0xffff) {
+      error("Too many global variables.");
+      return 0;
+    }
+
+    globals.put(name, globals.size());
+    return globals.size() - 1;
+  }
+
+  // Emits the operands of an instruction that reads, writes or calls a
+  // property: the constant holding its name, then the inline cache the
+  // instruction keeps in the function.
+  private void emitProperty(String name) {
+    emitShort(identifierConstant(name));
+
+    if (current.function.cacheCount > 0xffff) {
+      error("Too many property accesses in one function.");
+    }
+    emitShort(current.function.cacheCount++);
+  }
+
+  private static int resolveLocal(FunctionCompiler compiler, String name) {
+    for (int i = compiler.locals.size() - 1; i >= 0; i--) {
+      Local local = compiler.locals.get(i);
+      // Uninitialized locals are skipped. The Resolver has already rejected
+      // reading one in its own initializer.
+      if (local.depth != -1 && local.name.equals(name)) return i;
+    }
+
+    return -1;
+  }
+
+  private int addUpvalue(FunctionCompiler compiler, int index, boolean isLocal) {
+    List<Upvalue> upvalues = compiler.upvalues;
+    for (int i = 0; i < upvalues.size(); i++) {
+      Upvalue upvalue = upvalues.get(i);
+      if (upvalue.index == index && upvalue.isLocal == isLocal) {
+        return i;
+      }
+    }
+
+    if (upvalues.size() == UINT8_COUNT) {
+      error("Too many closure variables in function.");
+      return 0;
+    }
+
+    upvalues.add(new Upvalue(index, isLocal));
+    return compiler.function.upvalueCount++;
+  }
+
+  private int resolveUpvalue(FunctionCompiler compiler, String name) {
+    if (compiler.enclosing == null) return -1;
+
+    int local = resolveLocal(compiler.enclosing, name);
+    if (local != -1) {
+      compiler.enclosing.locals.get(local).isCaptured = true;
+      return addUpvalue(compiler, local, true);
+    }
+
+    int upvalue = resolveUpvalue(compiler.enclosing, name);
+    if (upvalue != -1) {
+      return addUpvalue(compiler, upvalue, false);
+    }
+
+    return -1;
+  }
+
+  private void addLocal(String name) {
+    if (current.locals.size() == UINT8_COUNT) {
+      error("Too many local variables in function.");
+      return;
+    }
+
+    current.locals.add(new Local(name, -1));
+  }
+
+  // Declares a variable and returns its index in the globals if it is a
+  // global, or 0 if it is a local.
+  private int declareVariable(Token name) {
+    line = name.line;
+
+    // Global variables are implicitly declared.
+    if (current.scopeDepth == 0) return globalIndex(name.lexeme);
+
+    addLocal(name.lexeme);
+    return 0;
+  }
+
+  private void markInitialized() {
+    if (current.scopeDepth == 0) return;
+    current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+  }
+
+  private void defineVariable(int global) {
+    if (current.scopeDepth > 0) {
+      markInitialized();
+      return;
+    }
+
+    emitByte(OpCode.DEFINE_GLOBAL);
+    emitShort(global);
+  }
+
+  private void namedVariable(String name, boolean assign) {
+    byte getOp, setOp;
+    int arg = resolveLocal(current, name);
+    boolean wide = false;
+    if (arg != -1) {
+      getOp = OpCode.GET_LOCAL;
+      setOp = OpCode.SET_LOCAL;
+    } else if ((arg = resolveUpvalue(current, name)) != -1) {
+      getOp = OpCode.GET_UPVALUE;
+      setOp = OpCode.SET_UPVALUE;
+    } else {
+      arg = globalIndex(name);
+      getOp = OpCode.GET_GLOBAL;
+      setOp = OpCode.SET_GLOBAL;
+      wide = true;
+    }
+
+    emitByte(assign ? setOp : getOp);
+    if (wide) {
+      emitShort(arg);
+    } else {
+      emitByte((byte) arg);
+    }
+  }
+
+  private void function(Stmt.Function stmt, FunctionType type) {
+    FunctionCompiler compiler = new FunctionCompiler(current, type, stmt.name.lexeme);
+    current = compiler;
+    beginScope();
+
+    for (Token param : stmt.params) {
+      current.function.arity++;
+      int constant = declareVariable(param);
+      defineVariable(constant);
+    }
+
+    for (Stmt statement : stmt.body) {
+      compile(statement);
+    }
+
+    // Create the function object.
+    ObjFunction function = endCompiler();
+    emitByte(OpCode.CLOSURE);
+    emitShort(makeConstant(function));
+
+    for (Upvalue upvalue : compiler.upvalues) {
+      emitByte(upvalue.isLocal ? (byte) 1 : (byte) 0);
+      emitByte((byte) upvalue.index);
+    }
+  }
+
+  private int argumentList(List<Expr> arguments) {
+    for (Expr argument : arguments) {
+      compile(argument);
+    }
+    return arguments.size();
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    for (Stmt statement : stmt.statements) {
+      compile(statement);
+    }
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    String className = stmt.name.lexeme;
+    int nameConstant = identifierConstant(className);
+    int variable = declareVariable(stmt.name);
+
+    emitByte(OpCode.CLASS);
+    emitShort(nameConstant);
+    defineVariable(variable);
+
+    ClassCompiler classCompiler = new ClassCompiler(currentClass);
+    currentClass = classCompiler;
+
+    if (stmt.superclass != null) {
+      compile(stmt.superclass);
+
+      beginScope();
+      addLocal("super");
+      defineVariable(0);
+
+      namedVariable(className, false);
+      emitByte(OpCode.INHERIT);
+      classCompiler.hasSuperclass = true;
+    }
+
+    namedVariable(className, false);
+    for (Stmt.Function method : stmt.methods) {
+      line = method.name.line;
+      int constant = identifierConstant(method.name.lexeme);
+
+      FunctionType type = FunctionType.METHOD;
+      if (method.name.lexeme.equals("init")) {
+        type = FunctionType.INITIALIZER;
+      }
+
+      function(method, type);
+      emitByte(OpCode.METHOD);
+      emitShort(constant);
+    }
+    emitByte(OpCode.POP);
+
+    if (classCompiler.hasSuperclass) {
+      endScope();
+    }
+
+    currentClass = currentClass.enclosing;
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    emitByte(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    int global = declareVariable(stmt.name);
+    markInitialized();
+    function(stmt, FunctionType.FUNCTION);
+    defineVariable(global);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.condition);
+
+    int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+    compile(stmt.thenBranch);
+
+    if (stmt.elseBranch == null) {
+      patchJump(thenJump);
+      return null;
+    }
+
+    int elseJump = emitJump(OpCode.JUMP);
+
+    patchJump(thenJump);
+    compile(stmt.elseBranch);
+    patchJump(elseJump);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    emitByte(OpCode.PRINT);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    line = stmt.keyword.line;
+    if (stmt.value == null) {
+      emitReturn();
+    } else {
+      compile(stmt.value);
+      emitByte(OpCode.RETURN);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    int global = declareVariable(stmt.name);
+
+    if (stmt.initializer != null) {
+      compile(stmt.initializer);
+    } else {
+      emitByte(OpCode.NIL);
+    }
+
+    defineVariable(global);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int loopStart = currentChunk().count;
+
+    compile(stmt.condition);
+
+    int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+    compile(stmt.body);
+
+    emitLoop(loopStart);
+
+    patchJump(exitJump);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    line = expr.name.line;
+    namedVariable(expr.name.lexeme, true);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.left);
+    if (isNumberLiteral(expr.right) && emitConstantOperand(expr)) return null;
+    compile(expr.right);
+
+    line = expr.operator.line;
+    switch (expr.operator.type) {
+      case BANG_EQUAL:
+        emitBytes(OpCode.EQUAL, OpCode.NOT);
+        break;
+      case EQUAL_EQUAL:
+        emitByte(OpCode.EQUAL);
+        break;
+      case GREATER:
+        emitByte(OpCode.GREATER);
+        break;
+      case GREATER_EQUAL:
+        emitBytes(OpCode.LESS, OpCode.NOT);
+        break;
+      case LESS:
+        emitByte(OpCode.LESS);
+        break;
+      case LESS_EQUAL:
+        emitBytes(OpCode.GREATER, OpCode.NOT);
+        break;
+      case PLUS:
+        emitByte(OpCode.ADD);
+        break;
+      case MINUS:
+        emitByte(OpCode.SUBTRACT);
+        break;
+      case STAR:
+        emitByte(OpCode.MULTIPLY);
+        break;
+      case SLASH:
+        emitByte(OpCode.DIVIDE);
+        break;
+      default:
+        // Unreachable.
+        break;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    if (expr.callee instanceof Expr.Get) {
+      // A method call on an instance. Look the method up and call it in one
+      // instruction instead of creating a bound method first.
+      Expr.Get get = (Expr.Get) expr.callee;
+      compile(get.object);
+      int argCount = argumentList(expr.arguments);
+      line = expr.paren.line;
+      emitByte(OpCode.INVOKE);
+      emitProperty(get.name.lexeme);
+      emitByte((byte) argCount);
+      return null;
+    }
+
+    if (expr.callee instanceof Expr.Super) {
+      Expr.Super superExpr = (Expr.Super) expr.callee;
+      namedVariable("this", false);
+      int argCount = argumentList(expr.arguments);
+      line = expr.paren.line;
+      namedVariable("super", false);
+      emitByte(OpCode.SUPER_INVOKE);
+      emitShort(identifierConstant(superExpr.method.lexeme));
+      emitByte((byte) argCount);
+      return null;
+    }
+
+    compile(expr.callee);
+    int argCount = argumentList(expr.arguments);
+    line = expr.paren.line;
+    emitBytes(OpCode.CALL, (byte) argCount);
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    compile(expr.object);
+    line = expr.name.line;
+    emitByte(OpCode.GET_PROPERTY);
+    emitProperty(expr.name.lexeme);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  private static boolean isNumberLiteral(Expr expr) {
+    return expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double;
+  }
+
+  // Emits the form of a binary operator that reads its number literal right
+  // operand as a constant instead of having it pushed first. Returns false
+  // for operators without one.
+  private boolean emitConstantOperand(Expr.Binary expr) {
+    byte instruction;
+    switch (expr.operator.type) {
+      case GREATER:
+      case LESS_EQUAL:
+        instruction = OpCode.GREATER_CONSTANT;
+        break;
+      case LESS:
+      case GREATER_EQUAL:
+        instruction = OpCode.LESS_CONSTANT;
+        break;
+      case PLUS:
+        instruction = OpCode.ADD_CONSTANT;
+        break;
+      case MINUS:
+        instruction = OpCode.SUBTRACT_CONSTANT;
+        break;
+      case STAR:
+        instruction = OpCode.MULTIPLY_CONSTANT;
+        break;
+      case SLASH:
+        instruction = OpCode.DIVIDE_CONSTANT;
+        break;
+      default:
+        return false;
+    }
+
+    line = expr.operator.line;
+    emitByte(instruction);
+    emitShort(makeConstant(((Expr.Literal) expr.right).value));
+
+    // Like visitBinaryExpr(), a <= b is !(a > b) and a >= b is !(a < b).
+    TokenType type = expr.operator.type;
+    if (type == TokenType.LESS_EQUAL || type == TokenType.GREATER_EQUAL) {
+      emitByte(OpCode.NOT);
+    }
+    return true;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      emitByte(OpCode.NIL);
+    } else if (expr.value.equals(true)) {
+      emitByte(OpCode.TRUE);
+    } else if (expr.value.equals(false)) {
+      emitByte(OpCode.FALSE);
+    } else {
+      emitConstant(expr.value);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.left);
+    line = expr.operator.line;
+
+    if (expr.operator.type == TokenType.AND) {
+      int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+      emitByte(OpCode.POP);
+      compile(expr.right);
+
+      patchJump(endJump);
+    } else {
+      int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+      int endJump = emitJump(OpCode.JUMP);
+
+      patchJump(elseJump);
+      emitByte(OpCode.POP);
+
+      compile(expr.right);
+      patchJump(endJump);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    compile(expr.object);
+    compile(expr.value);
+    line = expr.name.line;
+    emitByte(OpCode.SET_PROPERTY);
+    emitProperty(expr.name.lexeme);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    line = expr.keyword.line;
+    namedVariable("this", false);
+    namedVariable("super", false);
+    emitByte(OpCode.GET_SUPER);
+    emitShort(identifierConstant(expr.method.lexeme));
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    line = expr.keyword.line;
+    namedVariable("this", false);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.right);
+
+    line = expr.operator.line;
+    if (expr.operator.type == TokenType.BANG) {
+      emitByte(OpCode.NOT);
+    } else {
+      emitByte(OpCode.NEGATE);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    line = expr.name.line;
+    namedVariable(expr.name.lexeme, false);
+    return null;
+  }
+}
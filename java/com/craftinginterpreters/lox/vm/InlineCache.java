@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox.vm;
+
+import com.craftinginterpreters.lox.Shape;
+
+// What a property instruction found for the last instances it saw, keyed by
+// their shapes, like the caches on the tree-walk interpreter's Get, Set and
+// Call nodes. A shape belongs to one class, so it also pins down the method an
+// INVOKE found.
+class InlineCache {
+  Shape shape;
+  // The field's index.
+  int index;
+  // For SET_PROPERTY, the shape an instance moves to when the store adds the
+  // field, or null if the cached shape already has it.
+  Shape newShape;
+  // For INVOKE, the method, found because the shape has no field shadowing
+  // it.
+  ObjClosure method;
+
+  // The entry this one last replaced. A site that instances of two shapes
+  // reach in turn, like the leaves and inner nodes of a tree, then hits for
+  // both. Null in that entry itself.
+  private final InlineCache previous;
+
+  InlineCache() {
+    previous = new InlineCache(null);
+  }
+
+  private InlineCache(InlineCache previous) {
+    this.previous = previous;
+  }
+
+  // Returns the entry for the shape, or null if neither entry has it.
+  InlineCache get(Shape shape) {
+    if (shape == this.shape) return this;
+    if (shape == previous.shape) return previous;
+    return null;
+  }
+
+  // Moves the current entry to the previous one and returns it, keyed by the
+  // shape, for the caller to fill in.
+  InlineCache add(Shape shape) {
+    previous.shape = this.shape;
+    previous.index = index;
+    previous.newShape = newShape;
+    previous.method = method;
+
+    this.shape = shape;
+    return this;
+  }
+}
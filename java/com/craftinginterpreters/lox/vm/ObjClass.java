@@ -0,0 +1,29 @@
+package com.craftinginterpreters.lox.vm;
+
+import com.craftinginterpreters.lox.Shape;
+import java.util.HashMap;
+import java.util.Map;
+
+class ObjClass {
+  final String name;
+  final Map<String, ObjClosure> methods = new HashMap<>();
+  // The "init" method, if any, so instantiating doesn't look it up.
+  ObjClosure initializer = null;
+
+  // Every instance starts with this shape, so an instance's shape also pins
+  // down its class.
+  final Shape emptyShape = new Shape();
+
+  // How many fields instances have ended up with so far, used to size the
+  // field array of new ones.
+  int fieldCount = 0;
+
+  ObjClass(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
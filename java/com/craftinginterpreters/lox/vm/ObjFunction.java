@@ -0,0 +1,31 @@
+package com.craftinginterpreters.lox.vm;
+
+class ObjFunction {
+  int arity = 0;
+  int upvalueCount = 0;
+  final Chunk chunk = new Chunk();
+  // Null for the top-level script.
+  final String name;
+
+  // The chunk's constants, copied into an array once compilation is done so
+  // that the VM does not go through List.get() for every CONSTANT. Numbers
+  // are stored the way the VM's stack holds them: VM.NUMBER here and the
+  // value in numbers.
+  Object[] constants;
+  double[] numbers;
+
+  // One for each GET_PROPERTY, SET_PROPERTY and INVOKE instruction in the
+  // chunk, numbered by their operands.
+  int cacheCount = 0;
+  InlineCache[] caches;
+
+  ObjFunction(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    if (name == null) return "<script>";
+    return "<fn " + name + ">";
+  }
+}
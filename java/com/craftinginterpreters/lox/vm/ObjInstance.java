@@ -0,0 +1,38 @@
+package com.craftinginterpreters.lox.vm;
+
+import com.craftinginterpreters.lox.Shape;
+
+class ObjInstance {
+  final ObjClass klass;
+  Shape shape;
+  // Numbers are boxed here, unlike on the VM's stack.
+  Object[] fields;
+
+  ObjInstance(ObjClass klass) {
+    this.klass = klass;
+    this.shape = klass.emptyShape;
+    this.fields = new Object[klass.fieldCount];
+  }
+
+  // Adds a field, moving the instance to the given shape, which must be a
+  // transition from its current one.
+  void add(Shape next, Object value) {
+    int index = shape.size();
+    if (index == fields.length) {
+      Object[] grown = new Object[Math.max(4, index * 2)];
+      System.arraycopy(fields, 0, grown, 0, index);
+      fields = grown;
+    }
+
+    fields[index] = value;
+    shape = next;
+
+    // Size later instances for the fields this one ended up with.
+    if (index >= klass.fieldCount) klass.fieldCount = index + 1;
+  }
+
+  @Override
+  public String toString() {
+    return klass.name + " instance";
+  }
+}
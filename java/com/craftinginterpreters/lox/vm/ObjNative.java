@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox.vm;
+
+class ObjNative {
+  interface NativeFn {
+    Object call(Object[] arguments);
+  }
+
+  final int arity;
+  final NativeFn function;
+
+  ObjNative(int arity, NativeFn function) {
+    this.arity = arity;
+    this.function = function;
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+}
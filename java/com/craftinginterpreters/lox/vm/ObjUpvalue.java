@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox.vm;
+
+// A captured variable. While the variable is still on the stack, slot is its
+// index there, and the VM reads and writes it in place. Once the variable
+// goes out of scope its value is moved into closed, boxed if it is a number,
+// and slot becomes -1.
+class ObjUpvalue {
+  int slot;
+  Object closed = null;
+  ObjUpvalue next = null;
+
+  ObjUpvalue(int slot) {
+    this.slot = slot;
+  }
+}
@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox.vm;
+
+// The instruction set, mirroring clox's OpCode enum. Constant operands are two
+// bytes wide so that large scripts are not limited to 256 constants per chunk.
+final class OpCode {
+  static final byte CONSTANT = 0;
+  static final byte NIL = 1;
+  static final byte TRUE = 2;
+  static final byte FALSE = 3;
+  static final byte POP = 4;
+  static final byte GET_LOCAL = 5;
+  static final byte SET_LOCAL = 6;
+  static final byte GET_GLOBAL = 7;
+  static final byte DEFINE_GLOBAL = 8;
+  static final byte SET_GLOBAL = 9;
+  static final byte GET_UPVALUE = 10;
+  static final byte SET_UPVALUE = 11;
+  static final byte GET_PROPERTY = 12;
+  static final byte SET_PROPERTY = 13;
+  static final byte GET_SUPER = 14;
+  static final byte EQUAL = 15;
+  static final byte GREATER = 16;
+  static final byte LESS = 17;
+  static final byte ADD = 18;
+  static final byte SUBTRACT = 19;
+  static final byte MULTIPLY = 20;
+  static final byte DIVIDE = 21;
+  static final byte NOT = 22;
+  static final byte NEGATE = 23;
+  static final byte PRINT = 24;
+  static final byte JUMP = 25;
+  static final byte JUMP_IF_FALSE = 26;
+  static final byte LOOP = 27;
+  static final byte CALL = 28;
+  static final byte INVOKE = 29;
+  static final byte SUPER_INVOKE = 30;
+  static final byte CLOSURE = 31;
+  static final byte CLOSE_UPVALUE = 32;
+  static final byte RETURN = 33;
+  static final byte CLASS = 34;
+  static final byte INHERIT = 35;
+  static final byte METHOD = 36;
+  // Pops the condition and jumps if it was falsey. Used by if and while, which
+  // don't need the condition afterwards, unlike and and or.
+  static final byte POP_JUMP_IF_FALSE = 37;
+  // Binary operators whose right operand is a number constant, read like
+  // CONSTANT's instead of being pushed first.
+  static final byte GREATER_CONSTANT = 38;
+  static final byte LESS_CONSTANT = 39;
+  static final byte ADD_CONSTANT = 40;
+  static final byte SUBTRACT_CONSTANT = 41;
+  static final byte MULTIPLY_CONSTANT = 42;
+  static final byte DIVIDE_CONSTANT = 43;
+
+  private OpCode() {}
+}
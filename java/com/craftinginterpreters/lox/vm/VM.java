@@ -0,0 +1,848 @@
+package com.craftinginterpreters.lox.vm;
+
+import com.craftinginterpreters.lox.Shape;
+import com.craftinginterpreters.lox.Stmt;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A port of clox's stack-based virtual machine. Values are plain Java objects:
+// nil is null, numbers are Doubles, and strings are Strings. The stack and the
+// globals don't box numbers, though. A slot holding a number has NUMBER in its
+// object array and the number at the same index of the parallel double array,
+// so arithmetic doesn't allocate. Numbers are boxed when they go anywhere
+// else, like a field or a closed upvalue.
+public class VM {
+  // Lox calls do not use the Java stack here, so the limit can be much higher
+  // than clox's. It only exists to turn runaway recursion into a Lox error.
+  private static final int FRAMES_MAX = 1 << 14;
+
+  static final Object NUMBER = new Object();
+  // A global the Compiler has given an index that hasn't been defined yet.
+  private static final Object UNDEFINED = new Object();
+
+  private static class RuntimeError extends RuntimeException {
+    RuntimeError(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  private CallFrame[] frames = new CallFrame[64];
+  private int frameCount = 0;
+
+  private Object[] stack = new Object[256];
+  private double[] numbers = new double[256];
+  private int stackTop = 0;
+
+  // Global variables live at the index the Compiler gave their name, so
+  // instructions use the index instead of looking the name up.
+  private final Map<String, Integer> globalIndexes = new HashMap<>();
+  private String[] globalNames = new String[0];
+  private Object[] globals = new Object[0];
+  private double[] globalNumbers = new double[0];
+
+  private ObjUpvalue openUpvalues = null;
+
+  public VM() {
+    defineNative("clock", 0, arguments -> (double) System.currentTimeMillis() / 1000.0);
+  }
+
+  public InterpretResult interpret(List<Stmt> statements) {
+    ObjFunction function = new Compiler(globalIndexes).compile(statements);
+    growGlobals();
+    if (function == null) return InterpretResult.COMPILE_ERROR;
+
+    ObjClosure closure = new ObjClosure(function);
+    push(closure);
+    call(closure, 0);
+
+    return run();
+  }
+
+  // Makes room for the globals the Compiler has added since the last time.
+  private void growGlobals() {
+    int count = globalIndexes.size();
+    if (count == globals.length) return;
+
+    int defined = globals.length;
+    globals = Arrays.copyOf(globals, count);
+    globalNumbers = Arrays.copyOf(globalNumbers, count);
+    Arrays.fill(globals, defined, count, UNDEFINED);
+
+    globalNames = new String[count];
+    for (Map.Entry<String, Integer> global : globalIndexes.entrySet()) {
+      globalNames[global.getValue()] = global.getKey();
+    }
+  }
+
+  private void resetStack() {
+    Arrays.fill(stack, 0, stackTop, null);
+    stackTop = 0;
+    frameCount = 0;
+    openUpvalues = null;
+  }
+
+  private void reportRuntimeError(String message) {
+    System.err.println(message);
+
+    for (int i = frameCount - 1; i >= 0; i--) {
+      CallFrame frame = frames[i];
+      ObjFunction function = frame.closure.function;
+      // -1 because the IP is sitting on the next instruction to be
+      // executed.
+      int instruction = frame.ip - 1;
+      System.err.print("[line " + function.chunk.lines[instruction] + "] in ");
+      if (function.name == null) {
+        System.err.println("script");
+      } else {
+        System.err.println(function.name + "()");
+      }
+    }
+
+    resetStack();
+  }
+
+  private void defineNative(String name, int arity, ObjNative.NativeFn function) {
+    int index = globalIndexes.computeIfAbsent(name, key -> globalIndexes.size());
+    growGlobals();
+    globals[index] = new ObjNative(arity, function);
+  }
+
+  private void growStack() {
+    stack = Arrays.copyOf(stack, stack.length * 2);
+    numbers = Arrays.copyOf(numbers, numbers.length * 2);
+  }
+
+  private void push(Object value) {
+    if (stackTop == stack.length) growStack();
+    store(stackTop++, value);
+  }
+
+  // Pushes a copy of another slot.
+  private void pushSlot(int slot) {
+    if (stackTop == stack.length) growStack();
+    stack[stackTop] = stack[slot];
+    numbers[stackTop++] = numbers[slot];
+  }
+
+  private void copySlot(int from, int to) {
+    stack[to] = stack[from];
+    numbers[to] = numbers[from];
+  }
+
+  // Sets a slot to a value, unboxing it if it is a number.
+  private void store(int slot, Object value) {
+    if (value instanceof Double) {
+      stack[slot] = NUMBER;
+      numbers[slot] = (double) value;
+    } else {
+      stack[slot] = value;
+    }
+  }
+
+  // Returns the value in a slot, boxing it if it is a number.
+  private Object value(int slot) {
+    Object value = stack[slot];
+    if (value == NUMBER) return numbers[slot];
+    return value;
+  }
+
+  private Object pop() {
+    return value(--stackTop);
+  }
+
+  // Unlike pop(), a number shows up as NUMBER. Only used where a number
+  // would be an error anyway.
+  private Object peek(int distance) {
+    return stack[stackTop - 1 - distance];
+  }
+
+  private void call(ObjClosure closure, int argCount) {
+    if (argCount != closure.function.arity) {
+      throw new RuntimeError(
+          "Expected " + closure.function.arity + " arguments but got " + argCount + ".");
+    }
+
+    if (frameCount == FRAMES_MAX) {
+      throw new RuntimeError("Stack overflow.");
+    }
+
+    if (frameCount == frames.length) {
+      frames = Arrays.copyOf(frames, frameCount * 2);
+    }
+
+    CallFrame frame = frames[frameCount];
+    if (frame == null) {
+      frame = new CallFrame();
+      frames[frameCount] = frame;
+    }
+    frameCount++;
+
+    frame.closure = closure;
+    frame.code = closure.function.chunk.code;
+    frame.constants = closure.function.constants;
+    frame.numbers = closure.function.numbers;
+    frame.caches = closure.function.caches;
+    frame.ip = 0;
+    frame.slots = stackTop - argCount - 1;
+  }
+
+  private void callValue(Object callee, int argCount) {
+    if (callee instanceof ObjClosure) {
+      call((ObjClosure) callee, argCount);
+      return;
+    }
+
+    if (callee instanceof ObjBoundMethod) {
+      ObjBoundMethod bound = (ObjBoundMethod) callee;
+      stack[stackTop - argCount - 1] = bound.receiver;
+      call(bound.method, argCount);
+      return;
+    }
+
+    if (callee instanceof ObjClass) {
+      ObjClass klass = (ObjClass) callee;
+      stack[stackTop - argCount - 1] = new ObjInstance(klass);
+      if (klass.initializer != null) {
+        call(klass.initializer, argCount);
+      } else if (argCount != 0) {
+        throw new RuntimeError("Expected 0 arguments but got " + argCount + ".");
+      }
+      return;
+    }
+
+    if (callee instanceof ObjNative) {
+      ObjNative nativeFn = (ObjNative) callee;
+      if (argCount != nativeFn.arity) {
+        throw new RuntimeError(
+            "Expected " + nativeFn.arity + " arguments but got " + argCount + ".");
+      }
+
+      Object[] arguments = new Object[argCount];
+      for (int i = 0; i < argCount; i++) {
+        arguments[i] = value(stackTop - argCount + i);
+      }
+      Object result = nativeFn.function.call(arguments);
+      stackTop -= argCount + 1;
+      push(result);
+      return;
+    }
+
+    throw new RuntimeError("Can only call functions and classes.");
+  }
+
+  private void invokeFromClass(ObjClass klass, String name, int argCount) {
+    ObjClosure method = klass.methods.get(name);
+    if (method == null) {
+      throw new RuntimeError("Undefined property '" + name + "'.");
+    }
+
+    call(method, argCount);
+  }
+
+  // The INVOKE instruction, when its cache doesn't have the receiver's
+  // shape.
+  private void invoke(String name, InlineCache cache, int argCount) {
+    Object receiver = peek(argCount);
+
+    if (!(receiver instanceof ObjInstance)) {
+      throw new RuntimeError("Only instances have methods.");
+    }
+
+    ObjInstance instance = (ObjInstance) receiver;
+
+    int index = instance.shape.indexOf(name);
+    if (index != -1) {
+      Object value = instance.fields[index];
+      store(stackTop - argCount - 1, value);
+      callValue(value, argCount);
+      return;
+    }
+
+    ObjClosure method = instance.klass.methods.get(name);
+    if (method == null) {
+      throw new RuntimeError("Undefined property '" + name + "'.");
+    }
+
+    cache.add(instance.shape).method = method;
+    call(method, argCount);
+  }
+
+  // GET_PROPERTY, when its cache doesn't have the instance's shape.
+  private void getUncachedProperty(ObjInstance instance, String name, InlineCache cache) {
+    int index = instance.shape.indexOf(name);
+    if (index != -1) {
+      cache.add(instance.shape).index = index;
+      store(stackTop - 1, instance.fields[index]);
+      return;
+    }
+
+    bindMethod(instance.klass, name);
+  }
+
+  // Adds an entry to a SET_PROPERTY's cache for storing the named field in
+  // instances of the shape, and returns it.
+  private static InlineCache cacheField(Shape shape, String name, InlineCache cache) {
+    int index = shape.indexOf(name);
+    InlineCache entry = cache.add(shape);
+    if (index != -1) {
+      entry.index = index;
+      entry.newShape = null;
+    } else {
+      entry.newShape = shape.with(name);
+    }
+    return entry;
+  }
+
+  private void bindMethod(ObjClass klass, String name) {
+    ObjClosure method = klass.methods.get(name);
+    if (method == null) {
+      throw new RuntimeError("Undefined property '" + name + "'.");
+    }
+
+    ObjBoundMethod bound = new ObjBoundMethod(peek(0), method);
+    pop();
+    push(bound);
+  }
+
+  private ObjUpvalue captureUpvalue(int local) {
+    ObjUpvalue prevUpvalue = null;
+    ObjUpvalue upvalue = openUpvalues;
+
+    while (upvalue != null && upvalue.slot > local) {
+      prevUpvalue = upvalue;
+      upvalue = upvalue.next;
+    }
+
+    if (upvalue != null && upvalue.slot == local) return upvalue;
+
+    ObjUpvalue createdUpvalue = new ObjUpvalue(local);
+    createdUpvalue.next = upvalue;
+
+    if (prevUpvalue == null) {
+      openUpvalues = createdUpvalue;
+    } else {
+      prevUpvalue.next = createdUpvalue;
+    }
+
+    return createdUpvalue;
+  }
+
+  private void closeUpvalues(int last) {
+    while (openUpvalues != null && openUpvalues.slot >= last) {
+      ObjUpvalue upvalue = openUpvalues;
+      upvalue.closed = value(upvalue.slot);
+      upvalue.slot = -1;
+      openUpvalues = upvalue.next;
+    }
+  }
+
+  private void inherit() {
+    Object superclass = peek(1);
+    if (!(superclass instanceof ObjClass)) {
+      throw new RuntimeError("Superclass must be a class.");
+    }
+
+    ObjClass subclass = (ObjClass) peek(0);
+    subclass.methods.putAll(((ObjClass) superclass).methods);
+    subclass.initializer = ((ObjClass) superclass).initializer;
+    stackTop--; // Subclass.
+  }
+
+  private void defineMethod(String name) {
+    ObjClosure method = (ObjClosure) peek(0);
+    ObjClass klass = (ObjClass) peek(1);
+    klass.methods.put(name, method);
+    if (name.equals("init")) klass.initializer = method;
+    pop();
+  }
+
+  private static boolean isFalsey(Object value) {
+    return value == null || (value instanceof Boolean && !(boolean) value);
+  }
+
+  private static boolean valuesEqual(Object a, Object b) {
+    // Numbers never get here, so the same object is always equal to itself.
+    // That covers nil, the booleans and, usually, strings from constants.
+    if (a == b) return true;
+    if (a == null) return false;
+
+    return a.equals(b);
+  }
+
+  static String stringify(Object value) {
+    if (value == null) return "nil";
+
+    // Work around Java adding ".0" to integer-valued doubles.
+    if (value instanceof Double) {
+      String text = value.toString();
+      if (text.endsWith(".0")) {
+        text = text.substring(0, text.length() - 2);
+      }
+      return text;
+    }
+
+    return value.toString();
+  }
+
+  // Checks that the top two slots hold numbers and returns the top one's
+  // index.
+  private int numberOperands() {
+    int b = stackTop - 1;
+    if (stack[b] == NUMBER && stack[b - 1] == NUMBER) return b;
+    throw new RuntimeError("Operands must be numbers.");
+  }
+
+  // The same for the left operand of an instruction whose right one is a
+  // constant.
+  private int numberOperand() {
+    int a = stackTop - 1;
+    if (stack[a] == NUMBER) return a;
+    throw new RuntimeError("Operands must be numbers.");
+  }
+
+  private InterpretResult run() {
+    CallFrame frame = frames[frameCount - 1];
+    byte[] code = frame.code;
+    Object[] constants = frame.constants;
+    double[] numberConstants = frame.numbers;
+    InlineCache[] caches = frame.caches;
+    int ip = frame.ip;
+
+    try {
+      for (;;) {
+        byte instruction = code[ip++];
+        switch (instruction) {
+          case OpCode.CONSTANT: {
+            int constant = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2;
+            if (stackTop == stack.length) growStack();
+            stack[stackTop] = constants[constant];
+            numbers[stackTop++] = numberConstants[constant];
+            break;
+          }
+          case OpCode.NIL:
+          case OpCode.TRUE:
+          case OpCode.FALSE:
+            // None of these are numbers, so they skip push()'s check.
+            if (stackTop == stack.length) growStack();
+            stack[stackTop++] = instruction == OpCode.NIL ? null : instruction == OpCode.TRUE;
+            break;
+          case OpCode.POP: stackTop--; break;
+
+          case OpCode.GET_LOCAL: {
+            int slot = code[ip++] & 0xff;
+            pushSlot(frame.slots + slot);
+            break;
+          }
+
+          case OpCode.SET_LOCAL: {
+            int slot = code[ip++] & 0xff;
+            copySlot(stackTop - 1, frame.slots + slot);
+            break;
+          }
+
+          case OpCode.GET_GLOBAL: {
+            int global = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2;
+            if (globals[global] == UNDEFINED) {
+              throw new RuntimeError("Undefined variable '" + globalNames[global] + "'.");
+            }
+
+            if (stackTop == stack.length) growStack();
+            stack[stackTop] = globals[global];
+            numbers[stackTop++] = globalNumbers[global];
+            break;
+          }
+
+          case OpCode.DEFINE_GLOBAL: {
+            int global = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2;
+            stackTop--;
+            globals[global] = stack[stackTop];
+            globalNumbers[global] = numbers[stackTop];
+            break;
+          }
+
+          case OpCode.SET_GLOBAL: {
+            int global = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2;
+            if (globals[global] == UNDEFINED) {
+              throw new RuntimeError("Undefined variable '" + globalNames[global] + "'.");
+            }
+
+            globals[global] = stack[stackTop - 1];
+            globalNumbers[global] = numbers[stackTop - 1];
+            break;
+          }
+
+          case OpCode.GET_UPVALUE: {
+            int slot = code[ip++] & 0xff;
+            ObjUpvalue upvalue = frame.closure.upvalues[slot];
+            if (upvalue.slot == -1) {
+              push(upvalue.closed);
+            } else {
+              pushSlot(upvalue.slot);
+            }
+            break;
+          }
+
+          case OpCode.SET_UPVALUE: {
+            int slot = code[ip++] & 0xff;
+            ObjUpvalue upvalue = frame.closure.upvalues[slot];
+            if (upvalue.slot == -1) {
+              upvalue.closed = value(stackTop - 1);
+            } else {
+              copySlot(stackTop - 1, upvalue.slot);
+            }
+            break;
+          }
+
+          case OpCode.GET_PROPERTY: {
+            if (!(peek(0) instanceof ObjInstance)) {
+              throw new RuntimeError("Only instances have properties.");
+            }
+
+            ObjInstance instance = (ObjInstance) peek(0);
+            InlineCache cache = caches[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+            InlineCache entry = cache.get(instance.shape);
+            if (entry != null) {
+              ip += 4;
+              store(stackTop - 1, instance.fields[entry.index]);
+              break;
+            }
+
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 4;
+            getUncachedProperty(instance, name, cache);
+            break;
+          }
+
+          case OpCode.SET_PROPERTY: {
+            if (!(peek(1) instanceof ObjInstance)) {
+              throw new RuntimeError("Only instances have fields.");
+            }
+
+            ObjInstance instance = (ObjInstance) peek(1);
+            InlineCache cache = caches[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+            Object value = value(stackTop - 1);
+            InlineCache entry = cache.get(instance.shape);
+            if (entry == null) {
+              String name =
+                  (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+              entry = cacheField(instance.shape, name, cache);
+            }
+
+            if (entry.newShape == null) {
+              instance.fields[entry.index] = value;
+            } else {
+              instance.add(entry.newShape, value);
+            }
+            ip += 4;
+
+            // Leave the value where the instance was.
+            copySlot(stackTop - 1, stackTop - 2);
+            stackTop--;
+            break;
+          }
+
+          case OpCode.GET_SUPER: {
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            ObjClass superclass = (ObjClass) pop();
+            bindMethod(superclass, name);
+            break;
+          }
+
+          case OpCode.EQUAL: {
+            int b = stackTop - 1;
+            boolean equal;
+            if (stack[b] == NUMBER || stack[b - 1] == NUMBER) {
+              // The same as comparing the boxed numbers with equals().
+              equal = stack[b] == stack[b - 1] &&
+                  Double.doubleToLongBits(numbers[b]) == Double.doubleToLongBits(numbers[b - 1]);
+            } else {
+              equal = valuesEqual(stack[b - 1], stack[b]);
+            }
+            stack[b - 1] = equal;
+            stackTop = b;
+            break;
+          }
+
+          case OpCode.GREATER: {
+            int b = numberOperands();
+            stack[b - 1] = numbers[b - 1] > numbers[b];
+            stackTop = b;
+            break;
+          }
+
+          case OpCode.LESS: {
+            int b = numberOperands();
+            stack[b - 1] = numbers[b - 1] < numbers[b];
+            stackTop = b;
+            break;
+          }
+
+          case OpCode.ADD: {
+            int b = stackTop - 1;
+            if (stack[b] == NUMBER && stack[b - 1] == NUMBER) {
+              numbers[b - 1] += numbers[b];
+            } else if (stack[b] instanceof String && stack[b - 1] instanceof String) {
+              stack[b - 1] = (String) stack[b - 1] + (String) stack[b];
+            } else {
+              throw new RuntimeError("Operands must be two numbers or two strings.");
+            }
+            stackTop = b;
+            break;
+          }
+
+          case OpCode.SUBTRACT: {
+            int b = numberOperands();
+            numbers[b - 1] -= numbers[b];
+            stackTop = b;
+            break;
+          }
+
+          case OpCode.MULTIPLY: {
+            int b = numberOperands();
+            numbers[b - 1] *= numbers[b];
+            stackTop = b;
+            break;
+          }
+
+          case OpCode.DIVIDE: {
+            int b = numberOperands();
+            numbers[b - 1] /= numbers[b];
+            stackTop = b;
+            break;
+          }
+
+          case OpCode.GREATER_CONSTANT: {
+            int a = numberOperand();
+            double b = numberConstants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            stack[a] = numbers[a] > b;
+            break;
+          }
+
+          case OpCode.LESS_CONSTANT: {
+            int a = numberOperand();
+            double b = numberConstants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            stack[a] = numbers[a] < b;
+            break;
+          }
+
+          case OpCode.ADD_CONSTANT: {
+            int a = stackTop - 1;
+            if (stack[a] != NUMBER) {
+              throw new RuntimeError("Operands must be two numbers or two strings.");
+            }
+
+            double b = numberConstants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            numbers[a] += b;
+            break;
+          }
+
+          case OpCode.SUBTRACT_CONSTANT: {
+            int a = numberOperand();
+            double b = numberConstants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            numbers[a] -= b;
+            break;
+          }
+
+          case OpCode.MULTIPLY_CONSTANT: {
+            int a = numberOperand();
+            double b = numberConstants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            numbers[a] *= b;
+            break;
+          }
+
+          case OpCode.DIVIDE_CONSTANT: {
+            int a = numberOperand();
+            double b = numberConstants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            numbers[a] /= b;
+            break;
+          }
+
+          case OpCode.NOT:
+            stack[stackTop - 1] = isFalsey(stack[stackTop - 1]);
+            break;
+
+          case OpCode.NEGATE:
+            if (stack[stackTop - 1] != NUMBER) {
+              throw new RuntimeError("Operand must be a number.");
+            }
+
+            numbers[stackTop - 1] = -numbers[stackTop - 1];
+            break;
+
+          case OpCode.PRINT:
+            System.out.println(stringify(pop()));
+            break;
+
+          case OpCode.JUMP: {
+            int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2 + offset;
+            break;
+          }
+
+          case OpCode.JUMP_IF_FALSE: {
+            int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2;
+            if (isFalsey(peek(0))) ip += offset;
+            break;
+          }
+
+          case OpCode.POP_JUMP_IF_FALSE: {
+            int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2;
+            if (isFalsey(stack[--stackTop])) ip += offset;
+            break;
+          }
+
+          case OpCode.LOOP: {
+            int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            ip += 2 - offset;
+            break;
+          }
+
+          case OpCode.CALL: {
+            int argCount = code[ip++] & 0xff;
+            frame.ip = ip;
+            Object callee = peek(argCount);
+            if (callee instanceof ObjClosure) {
+              call((ObjClosure) callee, argCount);
+            } else {
+              callValue(callee, argCount);
+            }
+            frame = frames[frameCount - 1];
+            code = frame.code;
+            constants = frame.constants;
+            numberConstants = frame.numbers;
+            caches = frame.caches;
+            ip = frame.ip;
+            break;
+          }
+
+          case OpCode.INVOKE: {
+            int method = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+            InlineCache cache = caches[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+            int argCount = code[ip + 4] & 0xff;
+            ip += 5;
+            frame.ip = ip;
+
+            Object receiver = peek(argCount);
+            InlineCache entry = receiver instanceof ObjInstance
+                ? cache.get(((ObjInstance) receiver).shape)
+                : null;
+            if (entry != null) {
+              call(entry.method, argCount);
+            } else {
+              invoke((String) constants[method], cache, argCount);
+            }
+            frame = frames[frameCount - 1];
+            code = frame.code;
+            constants = frame.constants;
+            numberConstants = frame.numbers;
+            caches = frame.caches;
+            ip = frame.ip;
+            break;
+          }
+
+          case OpCode.SUPER_INVOKE: {
+            String method = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            int argCount = code[ip + 2] & 0xff;
+            ip += 3;
+            frame.ip = ip;
+            ObjClass superclass = (ObjClass) pop();
+            invokeFromClass(superclass, method, argCount);
+            frame = frames[frameCount - 1];
+            code = frame.code;
+            constants = frame.constants;
+            numberConstants = frame.numbers;
+            caches = frame.caches;
+            ip = frame.ip;
+            break;
+          }
+
+          case OpCode.CLOSURE: {
+            ObjFunction function =
+                (ObjFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            ObjClosure closure = new ObjClosure(function);
+            push(closure);
+            for (int i = 0; i < closure.upvalues.length; i++) {
+              int isLocal = code[ip++];
+              int index = code[ip++] & 0xff;
+              if (isLocal != 0) {
+                closure.upvalues[i] = captureUpvalue(frame.slots + index);
+              } else {
+                closure.upvalues[i] = frame.closure.upvalues[index];
+              }
+            }
+            break;
+          }
+
+          case OpCode.CLOSE_UPVALUE:
+            closeUpvalues(stackTop - 1);
+            stackTop--;
+            break;
+
+          case OpCode.RETURN: {
+            Object result = stack[stackTop - 1];
+            double number = numbers[stackTop - 1];
+
+            closeUpvalues(frame.slots);
+
+            // Drop the frame's slots and temporaries so they don't keep
+            // their values alive until something overwrites them.
+            Arrays.fill(stack, frame.slots, stackTop, null);
+            stackTop = frame.slots;
+
+            frameCount--;
+            if (frameCount == 0) return InterpretResult.OK;
+
+            stack[stackTop] = result;
+            numbers[stackTop++] = number;
+
+            frame = frames[frameCount - 1];
+            code = frame.code;
+            constants = frame.constants;
+            numberConstants = frame.numbers;
+            caches = frame.caches;
+            ip = frame.ip;
+            break;
+          }
+
+          case OpCode.CLASS: {
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            push(new ObjClass(name));
+            break;
+          }
+
+          case OpCode.INHERIT:
+            inherit();
+            break;
+
+          case OpCode.METHOD: {
+            String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+            ip += 2;
+            defineMethod(name);
+            break;
+          }
+        }
+      }
+    } catch (RuntimeError error) {
+      frame.ip = ip;
+      reportRuntimeError(error.getMessage());
+      return InterpretResult.RUNTIME_ERROR;
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+// Checks that editing a Document gives the same trees and errors as parsing
+// the edited source from scratch. The arguments are the scripts to edit.
+//
+// Each script gets a run of random edits, about half of which undo the one
+// before, so the source keeps going back to a script without errors. After
+// every edit:
+// - the document has an error exactly when a new Document of the same
+//   source does;
+// - every error the edit reported is one the new Document reports too, at
+//   the same line;
+// - its trees match the new Document's, counting each token's line from
+//   its declaration's start line;
+// - if the source has no errors, the new Document's trees match those of a
+//   plain Parser and Resolver run over the whole source.
+public class DocumentTest {
+  private static final int EDITS = 300;
+
+  // Text that edits insert, chosen to move declaration boundaries, add and
+  // remove lines, and open and close strings, comments and blocks.
+  private static final String[] FRAGMENTS = {
+      "\n", "\n\n", " ", ";", "{", "}", "(", ")", "\"", "//", "else ",
+      "var x = 1;", "print x;\n", "fun f() {\n  return 1;\n}\n",
+      "class A {}\n", "return;", "this", "1 +",
+  };
+
+  private static int checked = 0;
+
+  public static void main(String[] args) throws IOException {
+    errorsAfterMovedLines();
+
+    for (String path : args) {
+      String source = new String(Files.readAllBytes(Paths.get(path)),
+          Charset.defaultCharset());
+      fuzz(path, source, new Random(path.hashCode()));
+    }
+
+    System.out.println("Checked " + checked + " edits.");
+  }
+
+  // An error in a declaration after lines were added above it is reported
+  // at its line in the whole source.
+  private static void errorsAfterMovedLines() {
+    String source = "var a = 1;\nfun f() {\n  return a;\n}\nprint f();\n";
+    Document document = quietly(() -> new Document(source));
+    check(!document.hadError(), "Expected no errors in " + source);
+
+    edit(document, 0, 0, "\n\n");
+    int at = document.source().indexOf("return a;") + "return a".length();
+    String errors = edit(document, at, 1, "");
+
+    String expected = "[line 6] Error at '}': Expect ';' after return value.\n";
+    check(errors.startsWith(expected), "Expected\n" + expected + "first, but got\n" + errors);
+    check(errors.equals(fullParseErrors(document.source())),
+        "Expected the same errors as a full parse, but got\n" + errors);
+  }
+
+  private static void fuzz(String name, String source, Random random) {
+    Document document = quietly(() -> new Document(source));
+    compare(name, document);
+
+    String[] undo = null;
+    for (int i = 0; i < EDITS; i++) {
+      String text = document.source();
+      int offset;
+      int length;
+      String replacement;
+      if (undo != null && random.nextBoolean()) {
+        offset = Integer.parseInt(undo[0]);
+        length = Integer.parseInt(undo[1]);
+        replacement = undo[2];
+        undo = null;
+      } else {
+        offset = random.nextInt(text.length() + 1);
+        length = random.nextInt(4) == 0
+            ? random.nextInt(Math.min(20, text.length() - offset) + 1) : 0;
+        replacement = random.nextInt(4) == 0
+            ? "" : FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+        undo = new String[] {
+            Integer.toString(offset), Integer.toString(replacement.length()),
+            text.substring(offset, offset + length)
+        };
+      }
+
+      String where = name + " after edit " + i + " (" + offset + "+" + length +
+          " -> " + quote(replacement) + ")";
+      String errors = edit(document, offset, length, replacement);
+      Document fresh = compare(where, document);
+
+      String freshErrors = errorsOf(() -> new Document(fresh.source()));
+      for (String error : errors.split("\n")) {
+        check(error.isEmpty() || freshErrors.contains(error + "\n"),
+            where + ": reported \"" + error + "\", which a full parse doesn't.");
+      }
+      checked++;
+    }
+  }
+
+  // Compares the document with a new one of the same source, and with a plain
+  // parse if that has no errors. Returns the new document.
+  private static Document compare(String where, Document document) {
+    Document fresh = quietly(() -> new Document(document.source()));
+    check(document.hadError() == fresh.hadError(),
+        where + ": hadError() is " + document.hadError() + " but a full parse says " +
+        fresh.hadError() + ".");
+    compareTrees(where, document, document.statements(), fresh, fresh.statements());
+
+    List<Stmt> statements = quietly(() -> {
+      Parser parser = new Parser(new Scanner(new StringReader(document.source())));
+      List<Stmt> parsed = parser.parse();
+      if (!Lox.hadError) new Resolver().resolve(parsed);
+      return parsed;
+    });
+    boolean hadError = Lox.hadError;
+    Lox.hadError = false;
+
+    check(hadError == fresh.hadError(),
+        where + ": a new Document's hadError() is " + fresh.hadError() +
+        " but the Parser's is " + hadError + ".");
+    if (!hadError) compareTrees(where, fresh, fresh.statements(), null, statements);
+    return fresh;
+  }
+
+  // Compares two lists of top-level statements. The tokens in those from a
+  // Document count lines from its start line. Those from a null document are
+  // on their line in the whole source.
+  private static void compareTrees(String where, Document expectedDocument,
+                                   List<Stmt> expected, Document actualDocument,
+                                   List<Stmt> actual) {
+    check(expected.size() == actual.size(),
+        where + ": " + actual.size() + " statements, expected " + expected.size() + ".");
+    for (int i = 0; i < expected.size(); i++) {
+      int expectedBase = expectedDocument.startLine(expected.get(i)) - 1;
+      int actualBase = actualDocument == null
+          ? 0 : actualDocument.startLine(actual.get(i)) - 1;
+      compareNodes(where + ", statement " + i, expected.get(i), expectedBase,
+          actual.get(i), actualBase);
+    }
+  }
+
+  // Walks both trees field by field, so that resolver results are compared
+  // as well as the syntax.
+  private static void compareNodes(String path, Object expected, int expectedBase,
+                                   Object actual, int actualBase) {
+    if (expected == null || actual == null) {
+      check(expected == actual, path + ": " + actual + ", expected " + expected + ".");
+      return;
+    }
+
+    if (expected instanceof Token) {
+      Token a = (Token) expected;
+      Token b = (Token) actual;
+      check(a.type == b.type && a.lexeme.equals(b.lexeme) &&
+          Objects.equals(a.literal, b.literal) &&
+          a.line + expectedBase == b.line + actualBase,
+          path + ": " + describe(b, actualBase) + ", expected " +
+          describe(a, expectedBase) + ".");
+      return;
+    }
+
+    if (expected instanceof List) {
+      List<?> a = (List<?>) expected;
+      List<?> b = (List<?>) actual;
+      check(a.size() == b.size(), path + ": " + b.size() + " items, expected " +
+          a.size() + ".");
+      for (int i = 0; i < a.size(); i++) {
+        compareNodes(path + "[" + i + "]", a.get(i), expectedBase, b.get(i), actualBase);
+      }
+      return;
+    }
+
+    if (!(expected instanceof Expr) && !(expected instanceof Stmt)) {
+      check(expected.equals(actual), path + ": " + actual + ", expected " + expected + ".");
+      return;
+    }
+
+    check(expected.getClass() == actual.getClass(), path + ": " +
+        actual.getClass().getSimpleName() + ", expected " +
+        expected.getClass().getSimpleName() + ".");
+    for (Class<?> type = expected.getClass(); type != Object.class;
+         type = type.getSuperclass()) {
+      for (Field field : type.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers())) continue;
+        field.setAccessible(true);
+        try {
+          compareNodes(path + "." + field.getName(), field.get(expected), expectedBase,
+              field.get(actual), actualBase);
+        } catch (IllegalAccessException error) {
+          throw new AssertionError(error);
+        }
+      }
+    }
+  }
+
+  private static String describe(Token token, int lineBase) {
+    return "'" + token.lexeme + "' on line " + (token.line + lineBase);
+  }
+
+  // Makes the edit and returns the errors it reported.
+  private static String edit(Document document, int offset, int length, String text) {
+    return errorsOf(() -> {
+      document.edit(offset, length, text);
+      return document;
+    });
+  }
+
+  private static String fullParseErrors(String source) {
+    return errorsOf(() -> {
+      Parser parser = new Parser(new Scanner(new StringReader(source)));
+      List<Stmt> statements = parser.parse();
+      if (!Lox.hadError) new Resolver().resolve(statements);
+      return statements;
+    });
+  }
+
+  private interface Action<T> {
+    T run();
+  }
+
+  private static <T> T quietly(Action<T> action) {
+    List<T> result = new ArrayList<>(1);
+    errorsOf(() -> {
+      result.add(action.run());
+      return null;
+    });
+    return result.get(0);
+  }
+
+  private static String errorsOf(Action<?> action) {
+    PrintStream err = System.err;
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    System.setErr(new PrintStream(errors, true));
+    Lox.hadError = false;
+    try {
+      action.run();
+    } finally {
+      System.setErr(err);
+    }
+    return errors.toString();
+  }
+
+  private static String quote(String text) {
+    return "\"" + text.replace("\n", "\\n").replace("\"", "\\\"") + "\"";
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) throw new AssertionError(message);
+  }
+}
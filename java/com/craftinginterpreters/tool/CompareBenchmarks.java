@@ -0,0 +1,215 @@
+package com.craftinginterpreters.tool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Runs each benchmark script under jlox and clox several times and prints a
+// JSON report of how long each took and how much slower jlox is.
+//
+// Every benchmark prints its results and then, on its last line, the total
+// time it measured with clock(), which leaves out the time an
+// implementation takes to start up. The results have to match the lines in
+// the benchmark's .expected file, so a wrong answer can't pass for a fast
+// one. A run that exits with an error, prints anything else, or doesn't end
+// with a positive time is reported as failed.
+public class CompareBenchmarks {
+  private static final String USAGE =
+      "Usage: compare_benchmarks --jlox <command> --clox <command> [--runs n] <benchmark>...\n" +
+      "Each benchmark is a .lox file or a directory of them, with a .expected file next to\n" +
+      "each holding its output up to the time. A command is split on spaces.";
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    List<String> jlox = null;
+    List<String> clox = null;
+    int runs = 5;
+    List<File> benchmarks = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--jlox") && i + 1 < args.length) {
+        jlox = Arrays.asList(args[++i].split(" +"));
+      } else if (arg.equals("--clox") && i + 1 < args.length) {
+        clox = Arrays.asList(args[++i].split(" +"));
+      } else if (arg.equals("--runs") && i + 1 < args.length) {
+        runs = Integer.parseInt(args[++i]);
+      } else if (arg.startsWith("--")) {
+        usage();
+      } else {
+        addBenchmarks(new File(arg), benchmarks);
+      }
+    }
+
+    if (jlox == null || clox == null || benchmarks.isEmpty() || runs < 1) usage();
+
+    boolean failed = false;
+    StringBuilder report = new StringBuilder();
+    report.append("{\n  \"runs\": ").append(runs).append(",\n  \"benchmarks\": [");
+    for (int i = 0; i < benchmarks.size(); i++) {
+      File benchmark = benchmarks.get(i);
+      String name = benchmark.getName().replaceFirst("\\.lox$", "");
+      Result jloxResult = run("jlox", jlox, benchmark, runs);
+      Result cloxResult = run("clox", clox, benchmark, runs);
+      failed |= jloxResult.error != null || cloxResult.error != null;
+
+      report.append(i == 0 ? "\n" : ",\n");
+      report.append("    {\n      \"name\": ").append(quote(name)).append(",\n");
+      report.append("      \"jlox\": ").append(jloxResult.toJson()).append(",\n");
+      report.append("      \"clox\": ").append(cloxResult.toJson()).append(",\n");
+      report.append("      \"slowdown\": ");
+      if (jloxResult.error == null && cloxResult.error == null) {
+        report.append(number(jloxResult.median() / cloxResult.median()));
+      } else {
+        report.append("null");
+      }
+      report.append("\n    }");
+    }
+    report.append("\n  ]\n}");
+
+    System.out.println(report);
+    if (failed) System.exit(1);
+  }
+
+  private static void usage() {
+    System.err.println(USAGE);
+    System.exit(64);
+  }
+
+  private static void addBenchmarks(File file, List<File> benchmarks) {
+    if (!file.isDirectory()) {
+      benchmarks.add(file);
+      return;
+    }
+
+    File[] files = file.listFiles((dir, name) -> name.endsWith(".lox"));
+    if (files == null) return;
+    Arrays.sort(files);
+    benchmarks.addAll(Arrays.asList(files));
+  }
+
+  private static class Result {
+    // The elapsed times, in seconds, sorted.
+    final List<Double> times = new ArrayList<>();
+    String error = null;
+
+    double median() {
+      int middle = times.size() / 2;
+      if (times.size() % 2 == 1) return times.get(middle);
+      return (times.get(middle - 1) + times.get(middle)) / 2.0;
+    }
+
+    // The nearest-rank 95th percentile.
+    double p95() {
+      int rank = (int) Math.ceil(0.95 * times.size());
+      return times.get(Math.max(rank, 1) - 1);
+    }
+
+    String toJson() {
+      if (error != null) return "{\"error\": " + quote(error) + "}";
+
+      StringBuilder json = new StringBuilder();
+      json.append("{\"median\": ").append(number(median()));
+      json.append(", \"p95\": ").append(number(p95()));
+      json.append(", \"times\": [");
+      for (int i = 0; i < times.size(); i++) {
+        if (i > 0) json.append(", ");
+        json.append(number(times.get(i)));
+      }
+      json.append("]}");
+      return json.toString();
+    }
+  }
+
+  private static Result run(String implementation, List<String> command, File benchmark,
+      int runs) throws IOException, InterruptedException {
+    Result result = new Result();
+
+    File expectedFile = new File(benchmark.getPath().replaceFirst("\\.lox$", "") + ".expected");
+    if (!expectedFile.isFile()) {
+      result.error = "Missing expected output " + expectedFile.getPath();
+      return result;
+    }
+    List<String> expected = Files.readAllLines(expectedFile.toPath(), StandardCharsets.UTF_8);
+
+    for (int i = 0; i < runs; i++) {
+      System.err.println(implementation + " " + benchmark.getName() + " run " + (i + 1) + "/" + runs);
+
+      List<String> arguments = new ArrayList<>(command);
+      arguments.add(benchmark.getPath());
+      Process process = new ProcessBuilder(arguments)
+          .redirectErrorStream(true)
+          .start();
+
+      List<String> lines = new ArrayList<>();
+      try (BufferedReader output = new BufferedReader(
+          new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = output.readLine()) != null) {
+          lines.add(line.trim());
+        }
+      }
+      String lastLine = lines.isEmpty() ? null : lines.get(lines.size() - 1);
+
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        result.error = "Exited with code " + exitCode + ": " + lastLine;
+        return result;
+      }
+
+      List<String> results = lines.subList(0, Math.max(lines.size() - 1, 0));
+      if (!results.equals(expected)) {
+        result.error = "Output does not match " + expectedFile.getName() + ": " + results;
+        return result;
+      }
+
+      double time;
+      try {
+        time = Double.parseDouble(lastLine);
+      } catch (NullPointerException | NumberFormatException error) {
+        result.error = "Last line is not a time: " + lastLine;
+        return result;
+      }
+
+      // Benchmarks print their total time, which can't be zero or less
+      // unless the benchmark is reporting something else.
+      if (!(time > 0.0) || Double.isInfinite(time)) {
+        result.error = "Last line is not a positive time: " + lastLine;
+        return result;
+      }
+      result.times.add(time);
+    }
+
+    Collections.sort(result.times);
+    return result;
+  }
+
+  private static String number(double value) {
+    return String.format(Locale.ROOT, "%.6f", value);
+  }
+
+  private static String quote(String text) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (char c : text.toCharArray()) {
+      switch (c) {
+        case '"': quoted.append("\\\""); break;
+        case '\\': quoted.append("\\\\"); break;
+        case '\n': quoted.append("\\n"); break;
+        default:
+          if (c < 0x20) {
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
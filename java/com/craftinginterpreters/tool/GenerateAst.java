@@ -16,27 +16,30 @@ public class GenerateAst {
         outputDir,
         "Expr",
         Arrays.asList(
-            "Assign   : Token name, Expr value",
+            "Assign   : Token name, Expr value : int depth = -1, int slot",
             "Binary   : Expr left, Token operator, Expr right",
-            "Call     : Expr callee, Token paren, List<Expr> arguments",
-            "Get      : Expr object, Token name",
+            "Call     : Expr callee, Token paren, List<Expr> arguments"
+                + " : boolean tail, Shape shape, Object method",
+            "Get      : Expr object, Token name : Shape shape, int index",
             "Grouping : Expr expression",
             "Literal  : Object value",
             "Logical  : Expr left, Token operator, Expr right",
-            "Set      : Expr object, Token name, Expr value",
-            "Super    : Token keyword, Token method",
-            "This     : Token keyword",
+            "Set      : Expr object, Token name, Expr value"
+                + " : Shape shape, Shape newShape, int index",
+            "Super    : Token keyword, Token method : int depth = -1, int slot, int thisDepth",
+            "This     : Token keyword : int depth = -1, int slot",
             "Unary    : Token operator, Expr right",
-            "Variable : Token name"));
+            "Variable : Token name : int depth = -1, int slot"));
 
     defineAst(
         outputDir,
         "Stmt",
         Arrays.asList(
-            "Block      : List<Stmt> statements",
+            "Block      : List<Stmt> statements : int slotCount",
             "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "Function   : Token name, List<Token> params, List<Stmt> body"
+                + " : int slotCount, int calls, MethodHandle jitCode, MethodHandle jitEntry",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "Print      : Expr expression",
             "Return     : Token keyword, Expr value",
@@ -51,29 +54,34 @@ public class GenerateAst {
 
     writer.println("package com.craftinginterpreters.lox;");
     writer.println();
+    writer.println("import java.lang.invoke.MethodHandle;");
     writer.println("import java.util.List;");
     writer.println();
-    writer.println("abstract class " + baseName + " {");
+    writer.println("public abstract class " + baseName + " {");
 
     defineVisitor(writer, baseName, types);
 
-    // The AST classes.
+    // The AST classes. An optional third section lists mutable fields that
+    // later passes such as the resolver fill in, or that the interpreter uses
+    // to cache what it learned the last time it ran the node.
     for (String type : types) {
-      String className = type.split(":")[0].trim();
-      String fields = type.split(":")[1].trim();
-      defineType(writer, baseName, className, fields);
+      String[] sections = type.split(":");
+      String className = sections[0].trim();
+      String fields = sections[1].trim();
+      String mutableFields = sections.length > 2 ? sections[2].trim() : null;
+      defineType(writer, baseName, className, fields, mutableFields);
     }
 
     // The base accept() method.
     writer.println();
-    writer.println("  abstract <R> R accept(Visitor<R> visitor);");
+    writer.println("  public abstract <R> R accept(Visitor<R> visitor);");
 
     writer.println("}");
     writer.close();
   }
 
   private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-    writer.println("  interface Visitor<R> {");
+    writer.println("  public interface Visitor<R> {");
 
     for (String type : types) {
       String typeName = type.split(":")[0].trim();
@@ -92,8 +100,12 @@ public class GenerateAst {
   }
 
   private static void defineType(
-      PrintWriter writer, String baseName, String className, String fieldList) {
-    writer.println("  static class " + className + " extends " + baseName + " {");
+      PrintWriter writer,
+      String baseName,
+      String className,
+      String fieldList,
+      String mutableFieldList) {
+    writer.println("  public static class " + className + " extends " + baseName + " {");
 
     // Constructor.
     writer.println("    " + className + "(" + fieldList + ") {");
@@ -109,14 +121,20 @@ public class GenerateAst {
     // Visitor pattern.
     writer.println();
     writer.println("    @Override");
-    writer.println("    <R> R accept(Visitor<R> visitor) {");
+    writer.println("    public <R> R accept(Visitor<R> visitor) {");
     writer.println("      return visitor.visit" + className + baseName + "(this);");
     writer.println("    }");
 
     // Fields.
     writer.println();
     for (String field : fields) {
-      writer.println("    final " + field + ";");
+      writer.println("    public final " + field + ";");
+    }
+
+    if (mutableFieldList != null) {
+      for (String field : mutableFieldList.split(", ")) {
+        writer.println("    " + field + ";");
+      }
     }
 
     writer.println("  }");